@@ -0,0 +1,124 @@
+package exome;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmarks of the dom, rec, eshare and compound hetero. models of ExomeModelFilterV2
+ * on decoded sites of a synthetic cohort, including output formatting of kept sites.
+ * The com model is measured by checkGene() on genes of GENE_SITES consecutive sites,
+ * from packed genotypes as in compoundHeterozygousModel().
+ * One operation is one variant, the score is ns/variant, and gc.alloc.rate.norm of
+ * -prof gc is bytes allocated per variant. Built and run as PredicateBench.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBench {
+    static final int LINES = 64; //variants per invocation.
+    static final int GENE_SITES = 8; //sites per gene for the com model.
+
+    //samples x families, only points with families <= samples / 3.
+    @Param({"100x1", "100x33", "1000x1", "1000x100", "10000x100", "10000x3000", "100000x100", "100000x10000"})
+    public String cohortSize;
+    @Param({"0.0001", "0.01", "0.5"})
+    public double af;
+
+    private SyntheticCohort cohort;
+    private ExomeModelFilterV2 filter;
+    private final ByteOutput out = new ByteOutput(1 << 16);
+    private int[][] geneSites; //index in the store of each gene.
+    private String[] geneNames;
+
+    @Setup
+    public void setup() throws IOException{
+        String[] size = cohortSize.split("x");
+        cohort = new SyntheticCohort(Integer.parseInt(size[0]), Integer.parseInt(size[1]), af, LINES, 1);
+        PackedGenotypeStore store = new PackedGenotypeStore(cohort.nSamples, 1L << 30);
+        filter = new ExomeModelFilterV2(); //new variant keys for each trial.
+        filter.useFamilies(cohort.famIndex, store);
+        for (int v = 0; v < LINES; v++) {
+            VcfRecord r = cohort.lines[v];
+            GenotypeBits g = cohort.genotypes[v];
+            boolean onXY = v % 16 == 15;
+            int n = 0;
+            int[] fams = new int[cohort.famIndex.famNames.length];
+            for (int f = 0; f < fams.length; f++) {
+                if (ExomeModelFilterV2.allAltAlleleAllMissingFalse(cohort.famIndex.caseMasks[f], g)
+                        && filter.checkAltHomo4Dom(cohort.famIndex.caseMasks[f], g, onXY)) {
+                    fams[n++] = f;
+                }
+            }
+            String[] genos = new String[n];
+            Arrays.fill(genos, "0/1");
+            long key = filter.variantKeys.add(r.field(0), Integer.parseInt(r.field(1)), r.field(3), r.field(4));
+            store.add(key, Integer.parseInt(r.field(1)), onXY, PackedGenotypeStore.pack(g), Arrays.copyOf(fams, n), genos, 0);
+        }
+        geneSites = new int[LINES / GENE_SITES][];
+        geneNames = new String[geneSites.length];
+        for (int i = 0; i < geneSites.length; i++) {
+            geneNames[i] = "G" + i; //not built in the measured loop.
+            geneSites[i] = new int[GENE_SITES];
+            for (int k = 0; k < GENE_SITES; k++) {
+                geneSites[i][k] = i * GENE_SITES + k;
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void dominantModel(Blackhole bh){
+        FormatFields fmt = filter.formatFields.get();
+        for (int v = 0; v < LINES; v++) {
+            out.setLength(0);
+            fmt.parse(cohort.lines[v]);
+            filter.dominantModel(cohort.lines[v], cohort.genotypes[v], out, null);
+            bh.consume(out.length());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void recessiveModel(Blackhole bh){
+        FormatFields fmt = filter.formatFields.get();
+        for (int v = 0; v < LINES; v++) {
+            out.setLength(0);
+            fmt.parse(cohort.lines[v]);
+            filter.recessiveModel(cohort.lines[v], cohort.genotypes[v], out, null);
+            bh.consume(out.length());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void eshare(Blackhole bh){
+        for (int v = 0; v < LINES; v++) {
+            bh.consume(filter.eshare(cohort.lines[v], cohort.genotypes[v]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void compoundHeterozygousModel(Blackhole bh){
+        for (int i = 0; i < geneSites.length; i++) {
+            bh.consume(filter.checkGene(geneNames[i], geneSites[i]));
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package exome;
+
+import exome.GenotypeBits.SampleMask;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmarks of genotype decoding and the genotype predicates of ExomeModelFilterV2,
+ * checked for all case families (or the control set) of a synthetic cohort.
+ * One operation is one variant, the score is ns/variant, and gc.alloc.rate.norm of
+ * -prof gc is bytes allocated per variant.
+ *
+ * Build and run by the bench profile of BIDMC/pom.xml, in BIDMC:
+ *   mvn -P bench package
+ *   java -jar target/benchmarks.jar -prof gc PredicateBench
+ * Parameters are narrowed by -p, eg. -p cohortSize=10000x100 -p af=0.01 (samples x families).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PredicateBench {
+    static final int LINES = 64; //variants per invocation.
+
+    //samples x families, only points with families <= samples / 3.
+    @Param({"100x1", "100x33", "1000x1", "1000x100", "10000x100", "10000x3000", "100000x100", "100000x10000"})
+    public String cohortSize;
+    @Param({"0.0001", "0.01", "0.5"})
+    public double af;
+
+    private SyntheticCohort cohort;
+    private ExomeModelFilterV2 filter; //checkAltHomo4Dom() uses the gender of its families.
+    private FormatFields fmt;
+    private GenotypeBits g;
+
+    @Setup
+    public void setup(){
+        String[] size = cohortSize.split("x");
+        cohort = new SyntheticCohort(Integer.parseInt(size[0]), Integer.parseInt(size[1]), af, LINES, 1);
+        filter = new ExomeModelFilterV2();
+        filter.useFamilies(cohort.famIndex, null);
+        fmt = new FormatFields(-1, -1);
+        g = new GenotypeBits(cohort.nSamples);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void decode(Blackhole bh){
+        for (VcfRecord r : cohort.lines) {
+            fmt.parse(r);
+            g.decode(r, SyntheticCohort.COL_START, fmt);
+            bh.consume(g);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int allAltAlleleAllMissingFalse(){
+        int n = 0;
+        for (GenotypeBits gb : cohort.genotypes) {
+            for (SampleMask m : cohort.famIndex.caseMasks) {
+                if (ExomeModelFilterV2.allAltAlleleAllMissingFalse(m, gb)) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int checkAltHomo4Dom(){
+        int n = 0;
+        for (int v = 0; v < LINES; v++) {
+            boolean onXY = v % 16 == 15; //chrX lines of SyntheticCohort.
+            for (SampleMask m : cohort.famIndex.caseMasks) {
+                if (filter.checkAltHomo4Dom(m, cohort.genotypes[v], onXY)) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int allAltHomoAllMissingFalse(){
+        int n = 0;
+        for (GenotypeBits gb : cohort.genotypes) {
+            for (SampleMask m : cohort.famIndex.caseMasks) {
+                if (ExomeModelFilterV2.allAltHomoAllMissingFalse(m, gb)) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public long estimateShareRate(){
+        long n = 0;
+        for (GenotypeBits gb : cohort.genotypes) {
+            for (SampleMask m : cohort.famIndex.caseMasks) {
+                n += ExomeModelFilterV2.estimateShareRate(m, gb)[0];
+            }
+        }
+        return n;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int controlRefHomo(){
+        int n = 0;
+        SampleMask ctrl = cohort.famIndex.allCtrlMask;
+        for (GenotypeBits gb : cohort.genotypes) {
+            if (ExomeModelFilterV2.allRefHomoAllMissingTrue(ctrl, gb)) {
+                n++;
+            }
+            if (ExomeModelFilterV2.hasRefHomo(ctrl, gb)) {
+                n++;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,92 @@
+package exome;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Synthetic cohort and vcf lines for the benchmarks, in memory, fixed seed.
+ * Each case family has 2 affected and 1 unaffected members, other samples are
+ * unrelated controls, the number of families is at most nSamples / 3.
+ * Genotypes are drawn by Hardy-Weinberg from the allele frequency, 1% missing,
+ * FORMAT is GT:DP:GQ, sites are on chr1 except every 16th on chrX.
+ */
+final class SyntheticCohort {
+    static final int COL_START = 9;
+
+    final int nSamples;
+    final int nFamilies;
+    final FamilyIndex famIndex;
+    final VcfRecord[] lines;
+    final GenotypeBits[] genotypes; //decoded lines.
+
+    /**
+     * @param nSamples
+     * @param nFamilies
+     * @param af alt. allele frequency of all sites.
+     * @param nLines
+     * @param seed
+     */
+    SyntheticCohort(int nSamples, int nFamilies, double af, int nLines, long seed) {
+        this.nSamples = nSamples;
+        if (nFamilies < 1 || nFamilies > nSamples / 3) {
+            throw new IllegalArgumentException("ERROR: families should be in [1, nSamples / 3]: " + nFamilies);
+        }
+        this.nFamilies = nFamilies;
+        Random rand = new Random(seed);
+
+        Map<String, List<String>> caseFamilies = new LinkedHashMap<>();
+        Map<String, List<String>> controlFamilies = new HashMap<>();
+        List<String> ctrlNames = new ArrayList<>();
+        Map<String, String> genderMap = new HashMap<>();
+        Map<String, Integer> nameIndexMap = new HashMap<>();
+        for (int i = 0; i < nSamples; i++) {
+            String name = "S" + i;
+            nameIndexMap.put(name, COL_START + i);
+            genderMap.put(name, rand.nextBoolean() ? "1" : "2");
+            int f = i / 3;
+            if (f < this.nFamilies) {
+                String fam = "F" + f;
+                if (i % 3 < 2) {
+                    caseFamilies.computeIfAbsent(fam, k -> new ArrayList<>()).add(name);
+                }else{
+                    controlFamilies.computeIfAbsent(fam, k -> new ArrayList<>()).add(name);
+                    ctrlNames.add(name);
+                }
+            }else{
+                ctrlNames.add(name);
+            }
+        }
+        famIndex = new FamilyIndex(caseFamilies, controlFamilies, ctrlNames, genderMap, nameIndexMap,
+                COL_START, COL_START + nSamples);
+
+        lines = new VcfRecord[nLines];
+        genotypes = new GenotypeBits[nLines];
+        FormatFields fmt = new FormatFields(-1, -1);
+        StringBuilder sb = new StringBuilder(nSamples * 12 + 64);
+        for (int v = 0; v < nLines; v++) {
+            sb.setLength(0);
+            sb.append(v % 16 == 15 ? "chrX" : "chr1").append('\t').append(10000 + v * 5).append("\t.\tA\tG\t.\tPASS\t.\tGT:DP:GQ");
+            for (int i = 0; i < nSamples; i++) {
+                sb.append('\t');
+                if (rand.nextDouble() < 0.01) {
+                    sb.append("./.:.:.");
+                    continue;
+                }
+                int a0 = rand.nextDouble() < af ? 1 : 0;
+                int a1 = rand.nextDouble() < af ? 1 : 0;
+                sb.append(a0).append('/').append(a1).append(':').append(10 + rand.nextInt(40)).append(':').append(rand.nextInt(100));
+            }
+            byte[] buf = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+            lines[v] = new VcfRecord();
+            lines[v].set(buf, 0, buf.length);
+            fmt.parse(lines[v]);
+            genotypes[v] = new GenotypeBits(nSamples);
+            genotypes[v].decode(lines[v], COL_START, fmt);
+        }
+    }
+}
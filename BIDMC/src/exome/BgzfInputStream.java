@@ -0,0 +1,287 @@
+package exome;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Read a BGZF (block gzip, bgzip/tabix) file.
+ * Blocks are independent gzip members, so the raw blocks are read in order
+ * and inflated ahead by a pool of threads, the bytes are returned in order.
+ * Position by virtual offset: (block file offset << 16 | offset in the block).
+ * With nThreads 0, blocks are inflated by the reading thread, eg. one stream per shard.
+ * The file offsets of recent blocks are kept, for the virtual offset of a position
+ * shortly before the read position (virtualOffset()), eg. for checkpoints.
+ */
+final class BgzfInputStream extends InputStream {
+    private static final int HEADER_LEN = 18;
+    private static final int HISTORY = 4096; //recent blocks for virtualOffset(), 256m bytes inflated.
+
+    private final FileChannel ch;
+    private final ExecutorService pool; //null: inflate in the reading thread.
+    private final int lookahead; //number of blocks inflated ahead.
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final ArrayDeque<Long> pendingOffsets = new ArrayDeque<>(); //file offsets of pending blocks.
+    private long nextBlock = 0; //file offset of the next raw block.
+    private boolean rawEof = false;
+
+    private byte[] cur = new byte[0]; //current inflated block.
+    private int curPos = 0;
+    private final long[] histOffset = new long[HISTORY]; //file offset and length of recent blocks, a ring.
+    private final int[] histLen = new int[HISTORY];
+    private int histN = 0; //blocks taken since open or seek.
+
+    BgzfInputStream(String file, int nThreads) throws IOException {
+        ch = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+        pool = nThreads <= 0 ? null : Executors.newFixedThreadPool(nThreads, r -> {
+            Thread t = new Thread(r, "bgzf-inflater");
+            t.setDaemon(true);
+            return t;
+        });
+        lookahead = Math.max(1, nThreads * 4);
+    }
+
+    /**
+     * Move to a virtual offset, from the tabix index.
+     * @param voff
+     * @throws IOException
+     */
+    void seek(long voff) throws IOException{
+        for (Future<byte[]> f : pending) {
+            f.cancel(true);
+        }
+        pending.clear();
+        pendingOffsets.clear();
+        histN = 0;
+        nextBlock = voff >>> 16;
+        rawEof = false;
+        cur = new byte[0];
+        curPos = 0;
+        if (!fill()) {
+            return;
+        }
+        curPos = (int) (voff & 0xFFFF);
+    }
+
+    /**
+     * Virtual offset of the position 'back' bytes before the read position.
+     * @param back bytes read but not used yet, eg. a partial line.
+     * @return
+     */
+    long virtualOffset(int back){
+        if (histN == 0) {
+            return nextBlock << 16;
+        }
+        int pos = curPos;
+        for (int k = 0; k < Math.min(histN, HISTORY); k++) {
+            int i = (histN - 1 - k) % HISTORY;
+            if (k > 0) {
+                pos = histLen[i];
+            }
+            if (back <= pos) {
+                return histOffset[i] << 16 | (pos - back);
+            }
+            back -= pos;
+        }
+        throw new IllegalStateException("ERROR: position is out of the recent BGZF blocks.");
+    }
+
+    /**
+     * Keep the file offset of a block taken as cur.
+     */
+    private void taken(long offset){
+        histOffset[histN % HISTORY] = offset;
+        histLen[histN % HISTORY] = cur.length;
+        histN++;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (curPos == cur.length && !fill()) {
+            return -1;
+        }
+        return cur[curPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (curPos == cur.length && !fill()) {
+            return -1;
+        }
+        int n = Math.min(len, cur.length - curPos);
+        System.arraycopy(cur, curPos, b, off, n);
+        curPos += n;
+        return n;
+    }
+
+    /**
+     * Copy bytes up to and including the next '\n' of the current block, at most len bytes,
+     * a line crossing blocks is read by several calls.
+     * @param b
+     * @param off
+     * @param len
+     * @return bytes copied, -1 if end of file.
+     * @throws IOException
+     */
+    int readLine(byte[] b, int off, int len) throws IOException{
+        if (curPos == cur.length && !fill()) {
+            return -1;
+        }
+        int end = Math.min(cur.length, curPos + len);
+        int i = curPos;
+        while (i < end && cur[i] != '\n') {
+            i++;
+        }
+        if (i < end) {
+            i++;
+        }
+        int n = i - curPos;
+        System.arraycopy(cur, curPos, b, off, n);
+        curPos = i;
+        return n;
+    }
+
+    /**
+     * Virtual offset of the next byte, in the next block if the current one was read up,
+     * the same for a position reached by reading or by seek().
+     * @return
+     * @throws IOException
+     */
+    long tell() throws IOException{
+        if (curPos == cur.length) {
+            fill();
+        }
+        return virtualOffset(0);
+    }
+
+    /**
+     * Take the next non-empty inflated block.
+     * @return false if end of file.
+     */
+    private boolean fill() throws IOException{
+        while (true) {
+            if (pool == null) {
+                long offset = nextBlock;
+                byte[] raw = readRaw();
+                if (raw == null) {
+                    return false;
+                }
+                try {
+                    cur = inflate(raw);
+                } catch (DataFormatException e) {
+                    throw new IOException("ERROR: failed to inflate BGZF block.", e);
+                }
+                curPos = 0;
+                if (cur.length > 0) {
+                    taken(offset);
+                    return true;
+                }
+                continue;
+            }
+            while (!rawEof && pending.size() < lookahead) {
+                long offset = nextBlock;
+                final byte[] raw = readRaw();
+                if (raw == null) {
+                    rawEof = true;
+                }else{
+                    pending.add(pool.submit(() -> inflate(raw)));
+                    pendingOffsets.add(offset);
+                }
+            }
+            Future<byte[]> f = pending.poll();
+            if (f == null) {
+                return false;
+            }
+            long offset = pendingOffsets.poll();
+            try {
+                cur = f.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IOException("ERROR: failed to inflate BGZF block.", e);
+            }
+            curPos = 0;
+            if (cur.length > 0) { //skip empty blocks, eg. the EOF marker.
+                taken(offset);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Read one raw block at nextBlock.
+     * @return null if end of file.
+     */
+    private byte[] readRaw() throws IOException{
+        ByteBuffer h = ByteBuffer.allocate(HEADER_LEN);
+        if (readFully(h, nextBlock) == 0) {
+            return null;
+        }
+        byte[] hb = h.array();
+        if (h.position() < HEADER_LEN || (hb[0] & 0xFF) != 31 || (hb[1] & 0xFF) != 139
+                || (hb[3] & 4) == 0 || hb[12] != 'B' || hb[13] != 'C') {
+            throw new IOException("ERROR: not a BGZF file, please compress vcf by bgzip.");
+        }
+        int bsize = ((hb[16] & 0xFF) | (hb[17] & 0xFF) << 8) + 1;
+        ByteBuffer raw = ByteBuffer.allocate(bsize);
+        if (readFully(raw, nextBlock) < bsize) {
+            throw new EOFException("ERROR: truncated BGZF block at " + nextBlock);
+        }
+        nextBlock += bsize;
+        return raw.array();
+    }
+
+    private int readFully(ByteBuffer b, long pos) throws IOException{
+        int n = 0;
+        while (b.hasRemaining()) {
+            int r = ch.read(b, pos + n);
+            if (r < 0) {
+                break;
+            }
+            n += r;
+        }
+        return n;
+    }
+
+    private static byte[] inflate(byte[] raw) throws DataFormatException{
+        int xlen = (raw[10] & 0xFF) | (raw[11] & 0xFF) << 8;
+        int n = raw.length;
+        int isize = (raw[n-4] & 0xFF) | (raw[n-3] & 0xFF) << 8 | (raw[n-2] & 0xFF) << 16 | (raw[n-1] & 0xFF) << 24;
+        byte[] out = new byte[isize];
+        Inflater inf = new Inflater(true);
+        try {
+            inf.setInput(raw, 12 + xlen, n - 12 - xlen - 8);
+            int k = 0;
+            while (k < isize && !inf.finished()) {
+                int r = inf.inflate(out, k, isize - k);
+                if (r == 0 && (inf.needsInput() || inf.needsDictionary())) {
+                    throw new DataFormatException("truncated BGZF block.");
+                }
+                k += r;
+            }
+        } finally {
+            inf.end();
+        }
+        return out;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+        ch.close();
+    }
+}
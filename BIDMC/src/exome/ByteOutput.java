@@ -0,0 +1,88 @@
+package exome;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer for output lines, bytes of the input line are
+ * copied without decoding to String.
+ */
+final class ByteOutput {
+    private byte[] buf;
+    private int len = 0;
+
+    ByteOutput(int size) {
+        buf = new byte[Math.max(16, size)];
+    }
+
+    private void ensure(int n){
+        if (len + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+        }
+    }
+
+    ByteOutput append(byte[] b){
+        return append(b, 0, b.length);
+    }
+
+    /**
+     * Append b[from, to).
+     */
+    ByteOutput append(byte[] b, int from, int to){
+        ensure(to - from);
+        System.arraycopy(b, from, buf, len, to - from);
+        len += to - from;
+        return this;
+    }
+
+    ByteOutput append(char c){
+        ensure(1);
+        buf[len++] = (byte) c;
+        return this;
+    }
+
+    /**
+     * Append a String of single byte chars.
+     */
+    ByteOutput append(String s){
+        ensure(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buf[len++] = (byte) s.charAt(i);
+        }
+        return this;
+    }
+
+    ByteOutput append(int v){
+        return append(Integer.toString(v));
+    }
+
+    ByteOutput append(ByteOutput o){
+        return append(o.buf, 0, o.len);
+    }
+
+    /**
+     * The internal buffer, valid in [0, length()).
+     */
+    byte[] buffer(){
+        return buf;
+    }
+
+    int length(){
+        return len;
+    }
+
+    void setLength(int n){
+        len = n;
+    }
+
+    void writeTo(OutputStream out) throws IOException{
+        out.write(buf, 0, len);
+    }
+
+    @Override
+    public String toString(){
+        return new String(buf, 0, len, StandardCharsets.ISO_8859_1);
+    }
+}
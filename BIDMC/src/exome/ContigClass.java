@@ -0,0 +1,118 @@
+package exome;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Classify the contig of a vcf line as autosome, X or Y, resolved once per
+ * contig and cached, consecutive lines of the same contig compare its bytes only.
+ * X or Y: contig name ends with x or y, case insensitive, eg. chrX, Y.
+ * With a genome build (-build), sites in the pseudo-autosomal regions of X and Y
+ * are PAR, diploid for males as on autosomes.
+ * One per worker thread, not thread safe.
+ */
+final class ContigClass {
+    static final byte AUTOSOME = 0;
+    static final byte X = 1;
+    static final byte Y = 2;
+    static final byte PAR = 3;
+
+    //pseudo-autosomal regions, 1-based inclusive, {X start, X end, ..., Y start, Y end, ...}.
+    private static final int[][] PAR_HG19 = {
+        {60001, 2699520, 154931044, 155260560},
+        {10001, 2649520, 59034050, 59363566}};
+    private static final int[][] PAR_HG38 = {
+        {10001, 2781479, 155701383, 156030895},
+        {10001, 2781479, 56887903, 57217415}};
+
+    private final int[][] par; //null: no build, PAR not recognized.
+    private final Map<String, Byte> cache = new HashMap<>();
+    private byte[] last = new byte[0]; //contig of the previous line.
+    private byte lastClass = AUTOSOME;
+
+    /**
+     * @param build hg19, hg38 (or GRCh37, GRCh38), null for no PAR.
+     */
+    ContigClass(String build) {
+        par = parRegions(build);
+    }
+
+    /**
+     * PAR regions of a genome build.
+     * @param build
+     * @return null if build is null.
+     * @throws IllegalArgumentException for unknown builds.
+     */
+    static int[][] parRegions(String build){
+        if (build == null) {
+            return null;
+        }
+        switch (build.toLowerCase()) {
+        case "hg19":
+        case "grch37":
+            return PAR_HG19;
+        case "hg38":
+        case "grch38":
+            return PAR_HG38;
+        default:
+            throw new IllegalArgumentException("unknown genome build (-build): " + build + ", please use hg19 or hg38.");
+        }
+    }
+
+    /**
+     * Class of the site of a line.
+     * @param rec
+     * @return AUTOSOME, X, Y or PAR.
+     */
+    byte classify(VcfRecord rec){
+        byte c = contig(rec);
+        if (c == AUTOSOME || par == null) {
+            return c;
+        }
+        int pos = 0;
+        for (int i = rec.start[1]; i < rec.end[1]; i++) {
+            pos = pos * 10 + (rec.buf[i] - '0');
+        }
+        int[] r = par[c == X ? 0 : 1];
+        for (int i = 0; i < r.length; i += 2) {
+            if (pos >= r[i] && pos <= r[i + 1]) {
+                return PAR;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Whether the site is on X or Y, out of PAR.
+     * @param rec
+     * @return
+     */
+    boolean onXY(VcfRecord rec){
+        byte c = classify(rec);
+        return c == X || c == Y;
+    }
+
+    private byte contig(VcfRecord rec){
+        int len = rec.end[0] - rec.start[0];
+        if (len == last.length) {
+            int i = 0;
+            while (i < len && rec.buf[rec.start[0] + i] == last[i]) {
+                i++;
+            }
+            if (i == len) {
+                return lastClass;
+            }
+        }
+        String name = rec.field(0);
+        Byte c = cache.get(name);
+        if (c == null) {
+            char e = Character.toLowerCase(name.charAt(name.length() - 1));
+            c = e == 'x' ? X : e == 'y' ? Y : AUTOSOME;
+            cache.put(name, c);
+        }
+        last = Arrays.copyOfRange(rec.buf, rec.start[0], rec.end[0]);
+        lastClass = c;
+        return c;
+    }
+}
@@ -0,0 +1,47 @@
+package exome;
+
+/**
+ * Reject a line by the genotypes of the unaffected individuals only, before
+ * the genotypes of all individuals are decoded.
+ * Controls are checked on the raw GT bytes (GenotypeBits.decodeSample), in an
+ * order learned from the lines seen: the control rejecting a line is moved to
+ * the front, so carriers of common variants are checked first. One per worker thread, not thread safe.
+ */
+final class ControlScreen {
+    private final int[] order; //vcf columns of the controls, in checking order.
+    private final boolean altHomOnly; //reject by alt homo control, otherwise by any non ref homo control.
+
+    /**
+     * @param ctrlCols vcf columns of all unaffected individuals.
+     * @param altHomOnly true if the recessive model is run, a line is kept by
+     *      recessive model unless a control is alt homo, also rejected by dominant model.
+     */
+    ControlScreen(int[] ctrlCols, boolean altHomOnly) {
+        this.order = ctrlCols.clone();
+        this.altHomOnly = altHomOnly;
+    }
+
+    /**
+     * Check the controls of one tokenized line.
+     * Same genotype states as GenotypeBits, missing if the column is absent.
+     * @param rec
+     * @param fmt FORMAT of this line.
+     * @return true if some control disqualifies this line for all models.
+     */
+    boolean rejects(VcfRecord rec, FormatFields fmt){
+        for (int k = 0; k < order.length; k++) {
+            int c = order[k];
+            if (c >= rec.nCols) {
+                continue;
+            }
+            int st = GenotypeBits.decodeSample(rec, c, fmt);
+            if (altHomOnly ? (st & GenotypeBits.ALT_HOM) != 0 : st != 0 && (st & GenotypeBits.REF) == 0) {
+                //move to front.
+                System.arraycopy(order, 0, order, 1, k);
+                order[0] = c;
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,21 +1,46 @@
 package exome;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 import java.util.StringJoiner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import exome.GenotypeBits.SampleMask;
 
 /**
  * Filter variants according to inherent model.
@@ -78,37 +103,134 @@ import java.util.StringJoiner;
  * 1. Add function for compound het. checking, requiring at least one candidate sites
  *      in candidate site set with alt-homo genotype is zero general population.
  * 
+ * @version 2.6
+ * 1. Pipelined multi-threaded processing of the vcf stream.
+ *      One reader thread groups lines into batches, a pool of workers (-t) 
+ *      classifies the batches, and the writer outputs results in input order.
+ * 2. Read vcf as bytes and tokenize lines in place (VcfRecord), genotypes 
+ *      are checked on the raw bytes, Strings are only created for outputs.
+ * 3. Compile families, controls and gender to vcf column indexes (FamilyIndex)
+ *      after reading the #CHROM line, no name lookups when checking genotypes.
+ * 4. Decode genotypes of a site once into bitsets (GenotypeBits), family and 
+ *      control checking by bit masks.
+ * 5. Keep sites for compound hetero. model in 2 bits packed genotypes (PackedGenotypeStore),
+ *      only sites sharing alt. allele with any case family are kept.
+ * 6. Streaming compound hetero. model for position sorted vcf (-sorted), a gene is
+ *      checked and output once the stream passed its last annotated site (GeneEnds).
+ * 7. Run several models in one pass of the vcf (-mod dom,rec,eshare,com), each line is
+ *      decoded once for all models, and results of each model go to prefix.model.txt (-o).
+ * 8. Read bgzip compressed vcf file (-i), blocks are decompressed in parallel (BgzfInputStream),
+ *      and only read the sites in regions (-region, -regions) by tabix index.
+ * 9. Sharded run of an indexed vcf (-shard contig|bp), each worker reads and checks
+ *      one shard, results are output in genome order of the shards.
+ * 10. Compound hetero. genes are checked in parallel (fork join, work stealing), 
+ *      output in gene name order, and in family order within a gene.
+ * 11. Variants of compound hetero. model are identified by packed long keys (VariantKeys),
+ *      looked up in open addressing primitive maps (LongIntMap), sites not annotated
+ *      to any gene are dropped by the workers.
+ * 12. Gene intervals in bed or gtf (-g) for compound hetero. model, instead of the per 
+ *      variant annotation file, sites are assigned to overlapping genes on the fly (GeneIntervals).
+ * 13. Output by family templates compiled from the header, genotype bytes are copied 
+ *      from the line to byte buffers (ByteOutput). Candidate families are counted first,
+ *      and formatted only if the site is output.
+ * 14. Dominant model stops scanning families as soon as the candidate families
+ *      exceed the maximum (-m), common variants are rejected without checking the rest.
+ * 15. Control first rejection for dom and rec models (ControlScreen), controls are checked
+ *      on the raw genotypes in an order learned by each worker, before decoding the cases.
+ * 16. Decode GT by alleles instead of the 1st and 3rd chars, alleles with several digits 
+ *      and haploid calls are supported. Split multi-allelic sites in the stream (-split).
+ * 17. Contigs are classified as autosome, X or Y once and cached by each worker (ContigClass),
+ *      sites in pseudo-autosomal regions are checked as autosomal with a genome build (-build).
+ * 18. FORMAT column is parsed once per distinct FORMAT string (FormatFields), coverage (DP) of
+ *      the output is found by name, not the 2nd sub-field. Genotypes with low GQ or DP
+ *      (-mingq, -mindp) are treated as missing when decoding.
+ * 19. Convert the vcf to a binary genotype cache (convert), memory mapped and read instead
+ *      of the vcf (-cache) by later runs, genotypes are stored as 2 bits codes, other GT strings
+ *      as exceptions, DP/GQ in the smallest width of each site (GenotypeCache).
+ * 20. Packed genotypes of compound hetero. model are kept off the java heap, in direct 
+ *      buffers up to a memory budget (-membudget), then in a memory mapped temp file.
+ * 21. Throughput, time by stage, sites rejected by each filter and candidate families, reported
+ *      to stderr periodically (-metrics) and as json at the end (-metricsout) (Metrics).
+ * 22. JMH benchmarks of the models and genotype predicates on synthetic cohorts (BIDMC/bench),
+ *      models and predicates are package-private for them.
+ * 23. Resident daemon (-daemon), the ped file and gene annotation are loaded once, vcf jobs
+ *      are read from a named pipe, and run at the same time (-jobs), each in its own instance.
+ *      Errors of a job's input are written to its status file, the daemon keeps running.
+ * 24. Checkpoints of long runs (-checkpoint), the input position (BGZF virtual offset) and
+ *      output lengths after a written batch, and a journal of compound hetero. sites.
+ *      A killed run continues from the last checkpoint (-resume).
+* 
  * @author wallace
  *
  */
 public class ExomeModelFilterV2 {
 	
-//	private static int nCPUs = 0;
-	private static boolean isData = false;
-	private static Map<String, ArrayList<String>> caseFamilies = new HashMap<String, ArrayList<String>>(); //familyName->(idname1,idname2,...)
-	private static Map<String, ArrayList<String>> controlFamilies = new HashMap<String, ArrayList<String>>();
-	private static Map<String, ArrayList<String>> allFamilies = new HashMap<String, ArrayList<String>>();
-	private static int ColStart = 0;
-	private static String[] nameArr;
-	private static Map<String, Integer> nameIndexMap = new HashMap<String, Integer>(); //idname -> Array_index
-	private static Set<String> pedIdSet = new HashSet<>(); 
-    private static List<String> ctrlNames = new LinkedList<String>(); //name list for all control.
-    private static final DecimalFormat formater = new DecimalFormat("#.####");
-    
-    private static String geneAnnoFile = ""; // gene annotation file, for compound hetero. model.
-    private static Map<String,List<String>> geneAnnoMap = new HashMap<>(); //geneName -> variant list.
-    private static String[][] comDataMatrix = null;
-    private static LinkedList<String[]> tempList = new LinkedList<>(); //temp data for checking compound hetero.
+	private int nCPUs = Runtime.getRuntime().availableProcessors();
+    private static final int BATCH_SIZE = 1 << 22; //bytes of vcf lines per batch for worker threads.
+    private OutputStream[] writers = null; //output of each model, in the order of models.
+    private String outPrefix = null; //-o, output to prefix.model.txt.
+    
+    //binary genotype cache, written by the convert command, read instead of the vcf (-cache).
+    private String cacheFile = null;
+    private GenotypeCache genotypeCache = null;
+
+    //indexed vcf input, bgzip compressed and tabix indexed for region queries.
+    private String vcfFile = null;
+    private final List<TabixIndex.Region> regions = new ArrayList<>();
+    private String regionsFile = null;
+    //sharded run of an indexed vcf, shards are processed in parallel and output in genome order.
+    private int shardSize = -1; //-1 not sharded, 0 one shard per contig, otherwise bp per shard.
+    private TabixIndex tabix = null;
+    private List<TabixIndex.Region> shards = null;
+	private boolean isData = false;
+	private Map<String, ArrayList<String>> caseFamilies = new HashMap<String, ArrayList<String>>(); //familyName->(idname1,idname2,...)
+	private Map<String, ArrayList<String>> controlFamilies = new HashMap<String, ArrayList<String>>();
+	private Map<String, ArrayList<String>> allFamilies = new HashMap<String, ArrayList<String>>();
+	private int ColStart = 9; //start column of vcf file, 0 based.
+	private String[] nameArr;
+	private Map<String, Integer> nameIndexMap = new HashMap<String, Integer>(); //idname -> Array_index
+	private FamilyIndex famIndex = null; //families compiled to column indexes, after reading #CHROM line.
+	private Set<String> pedIdSet = new HashSet<>(); 
+    private List<String> ctrlNames = new LinkedList<String>(); //name list for all control.
+    private static final ThreadLocal<DecimalFormat> formater = ThreadLocal.withInitial(() -> new DecimalFormat("#.####")); //not thread safe, one per worker.
+    //controls checked first on raw genotypes when only dom and rec are run, control order learned per worker.
+    private final ThreadLocal<ControlScreen> controlScreen = ThreadLocal.withInitial(() -> new ControlScreen(famIndex.allCtrlCols, hasModel("rec")));
+    
+    private String geneAnnoFile = ""; // gene annotation file, for compound hetero. model.
+    private Map<String,LongList> geneAnnoMap = new HashMap<>(); //geneName -> variant keys.
+    private String geneIntervalFile = null; // gene intervals (bed or gtf), replacing the annotation file.
+    private GeneIntervals geneIntervals = null;
+    VariantKeys variantKeys = new VariantKeys(); //variant key dictionaries, chr-pos-ref-alt -> long.
+    private PackedGenotypeStore comStore = null; //packed genotypes for checking compound hetero.
+    private long memBudget = Runtime.getRuntime().maxMemory() / 2; //-membudget, off heap bytes of comStore, then temp file.
+    private final LongIntMap variantIndexMap = new LongIntMap(1 << 16, -1); //variant key -> index in comStore.
+    
+    //streaming compound hetero. model for position sorted vcf.
+    private boolean sortedInput = false;
+    private GeneEnds geneEnds = new GeneEnds();
+    private LongIntMap variantGeneCount = new LongIntMap(1 << 16, 0); //variant key -> number of genes.
     
     //version 2.4
     static boolean checkDomAltHomo = true;
     //male 1, female 2.
-    private static final Map<String, String> genderMap = new HashMap<>();
+    private Map<String, String> genderMap = new HashMap<>();
 	
-	private static String imodel = "dom"; //inherent model.
-    private static int MaxCandiateFamilies = 5000;
+	private String[] models = {"dom"}; //inherent models, all run in one pass of the vcf.
+    private int MaxCandiateFamilies = 5000;
+    
+    private boolean splitAlleles = false; //-split, check each alt. allele of multi-allelic sites.
+    private String genomeBuild = null; //-build, for pseudo-autosomal regions of X and Y.
+    private int minGQ = -1; //-mingq, genotypes with lower GQ are treated as missing.
+    private int minDP = -1; //-mindp, genotypes with lower DP are treated as missing.
+    final ThreadLocal<FormatFields> formatFields = ThreadLocal.withInitial(() -> new FormatFields(minGQ, minDP));
+    private final ThreadLocal<ContigClass> contigClass = ThreadLocal.withInitial(() -> new ContigClass(genomeBuild));
     
-    private static boolean removeMNP = true;
+    //counters and stage timers, null if neither -metrics nor -metricsout.
+    private Metrics metrics = null;
+    private int metricsInterval = 0; //-metrics, seconds between reports to stderr, 0 for the final only.
+    private String metricsOut = null; //-metricsout, json report.
+    
+    private boolean removeMNP = true;
     private static int MNPlen = 3; //the distance of two sites to treated as MNP.
     //example MNPS
     // chr19-6693067-G-C and chr19-6693069-A-G, 
@@ -118,18 +240,111 @@ public class ExomeModelFilterV2 {
     
     // whether to check at least one candidate sites
     // in candidate site set with alt-homo genotype is zero general population for compound het. model.
-    private static boolean altHomoChecking4CompundHet = false;
-    //chr-pos-ref-alt. -> altHomo genotye count. 
-    private static Map<String,String> variantAltHomoCountMap = new HashMap<>();
+    private boolean altHomoChecking4CompundHet = false;
+    private static final int[] OUTPUT_COLS = {0, 1, 3, 4}; //chr pos ref alt.
+    private static final int GENES_PER_ROUND = 4096; //genes checked in parallel at one time.
+    private static final int PARALLEL_FAMILY_SITES = 64; //check families in parallel for genes with more sites.
+    //variant key -> 1 if altHomo genotye count is 0, otherwise 0. 
+    private LongIntMap variantAltHomoZero = new LongIntMap(1 << 16, -1);
+    
+    //resident daemon, reading jobs from a named pipe (-daemon), ped file and gene annotation are loaded once.
+    private String daemonPipe = null;
+    private String[] daemonArgs = null; //parameters of the daemon, the defaults of each job.
+    private int maxJobs = 4; //-jobs, daemon jobs running at the same time.
+    //parameters fixed when the daemon starts, not accepted in jobs.
+    private static final Set<String> DAEMON_ONLY = new HashSet<>(Arrays.asList("-t", "-a", "-g", "-c", "-cmnp", "-sorted", "-membudget", "-daemon", "-jobs"));
+    
+    //checkpoints of long runs (-checkpoint), a killed run continues from the last one (-resume).
+    private String checkpointFile = null;
+    private int checkpointInterval = 300; //-checkpointinterval, seconds between checkpoints.
+    private boolean resume = false;
+    private String runArgs = ""; //parameters of the run, the same when resuming.
+    private long resumePosition = -1; //input position of the checkpoint, -1 if not resuming.
+    private long journalLength = 0; //bytes of the com journal at the checkpoint.
+    private FileChannel[] outChannels = null; //outputs of each model, for their lengths.
+    private FileChannel journalChannel = null;
+    private DataOutputStream comJournal = null; //com sites and stream positions from the start, replayed when resuming.
+    private boolean replaying = false; //replaying the com journal, genes are not output again.
 
 	
+    public ExomeModelFilterV2() {
+    }
+    
+    /**
+     * One job of the daemon, sharing the ped file and gene annotation loaded by the daemon
+     * (read only), parameters and the state of the run are its own.
+     * @param daemon
+     */
+    private ExomeModelFilterV2(ExomeModelFilterV2 daemon) {
+        caseFamilies = daemon.caseFamilies;
+        controlFamilies = daemon.controlFamilies;
+        allFamilies = daemon.allFamilies;
+        pedIdSet = daemon.pedIdSet;
+        ctrlNames = daemon.ctrlNames;
+        genderMap = daemon.genderMap;
+        geneIntervals = daemon.geneIntervals;
+        geneAnnoMap = new HashMap<>(daemon.geneAnnoMap); //genes are removed by the streaming com model.
+        //gene intervals (-g) add keys of the job's sites, the annotation (-a) is only looked up.
+        variantKeys = daemon.geneIntervals != null ? new VariantKeys() : daemon.variantKeys;
+        variantGeneCount = daemon.variantGeneCount;
+        variantAltHomoZero = daemon.variantAltHomoZero;
+        geneEnds = daemon.geneEnds.copy();
+        daemonArgs = daemon.daemonArgs;
+    }
+	
 	public static void main(String[] args) {
 		List<String> argList = new ArrayList<>(5);
+		boolean convert = args.length > 0 && args[0].equals("convert"); //convert vcf to genotype cache.
+		ExomeModelFilterV2 filter = new ExomeModelFilterV2();
 		//check arguments.
-		for (int i = 0; i < args.length; i++) {
+		try {
+		    filter.parseOptions(args, convert ? 1 : 0, argList);
+		} catch (IllegalArgumentException e) {
+		    System.err.println("ERROR: " + e.getMessage());
+		    System.exit(-1);
+		}
+		
+		if(argList.size() != 1){
+			help();
+		}
+        if (convert) {
+            if (filter.shardSize >= 0 || filter.cacheFile != null) {
+                System.err.println("ERROR: sharding (-shard) or genotype cache (-cache) can not be used for convert.");
+                System.exit(-1);
+            }
+            filter.convertVcf(argList.get(0));
+            return;
+        }
+        String error = filter.optionError();
+        if (error != null) {
+            System.err.println("ERROR: " + error);
+            System.exit(-1);
+        }
+
+//		ColStart = Integer.parseInt(argList.get(1)) -1; //shift to 0 based.
+        filter.runArgs = runSignature(args);
+        if (filter.daemonPipe != null) {
+            filter.daemonArgs = args;
+            filter.runDaemon(argList.get(0));
+            return;
+        }
+		filter.runApp(argList.get(0));
+	}
+    
+    /**
+     * Parse parameters, others (the ped file) are added to argList.
+     * Also parses the parameters of daemon jobs.
+     * @param args
+     * @param from
+     * @param argList
+     * @throws IllegalArgumentException for invalid values.
+     */
+    private void parseOptions(String[] args, int from, List<String> argList){
+		for (int i = from; i < args.length; i++) {
 			switch (args[i]) {
 			case "-t":
 				i++; System.setProperty("java.util.concurrent.ForkJoinPool.common.parallelism", args[i]);
+                nCPUs = Integer.parseInt(args[i]);
 				break;	
             case "-m":
                 i++;    MaxCandiateFamilies = Integer.parseInt(args[i]);
@@ -137,63 +352,263 @@ public class ExomeModelFilterV2 {
             case "-a":
                 i++; geneAnnoFile = args[i];
                 break;
+            case "-g":
+                i++; geneIntervalFile = args[i];
+                break;
             case "-cmnp":
                 removeMNP = false;
                 break;
             case "-c":
                 altHomoChecking4CompundHet = true;
+                break;
+            case "-build":
+                i++; genomeBuild = args[i];
+                ContigClass.parRegions(genomeBuild); //check build name.
+                break;
+            case "-mingq":
+                i++; minGQ = Integer.parseInt(args[i]);
+                break;
+            case "-mindp":
+                i++; minDP = Integer.parseInt(args[i]);
+                break;
+            case "-split":
+                splitAlleles = true;
+                break;
+            case "-sorted":
+                sortedInput = true;
+                break;
+            case "-o":
+                i++; outPrefix = args[i];
+                break;
+            case "-i":
+                i++; vcfFile = args[i];
+                break;
+            case "-region":
+                i++; regions.add(TabixIndex.parseRegion(args[i]));
+                break;
+            case "-regions":
+                i++; regionsFile = args[i];
+                break;
+            case "-membudget":
+                i++; memBudget = parseSize(args[i]);
+                break;
+            case "-cache":
+                i++; cacheFile = args[i];
+                break;
+            case "-metrics":
+                i++; metricsInterval = Integer.parseInt(args[i]);
+                metrics = new Metrics();
+                break;
+            case "-metricsout":
+                i++; metricsOut = args[i];
+                metrics = new Metrics();
+                break;
+            case "-daemon":
+                i++; daemonPipe = args[i];
+                break;
+            case "-jobs":
+                i++; maxJobs = Integer.parseInt(args[i]);
+                if (maxJobs < 1) {
+                    throw new IllegalArgumentException("-jobs should be at least 1.");
+                }
+                break;
+            case "-checkpoint":
+                i++; checkpointFile = args[i];
+                break;
+            case "-checkpointinterval":
+                i++; checkpointInterval = Integer.parseInt(args[i]);
+                break;
+            case "-resume":
+                resume = true;
+                break;
+            case "-shard":
+                i++; shardSize = args[i].equals("contig") ? 0 : Integer.parseInt(args[i]);
                 break;
 			case "-mod":
 				i++;
-					switch (args[i]) {
+                Set<String> mods = new LinkedHashSet<>();
+                for (String m : args[i].split(",")) {
+					switch (m) {
 					case "dom":
-						imodel = args[i];
-						break;
 					case "rec":
-						imodel = args[i];
-						break;
 					case "com":
-						imodel = args[i]; break;
                     case "eshare":
-                        imodel = args[i]; break;
+                        mods.add(m); break;
 					default:
-						System.err.println("The -mod parameter should be dom|rec|com|eshare for dominant, recessive or compound heterozygosity model.");
-						System.exit(-1);
+						throw new IllegalArgumentException("The -mod parameter should be dom|rec|com|eshare for dominant, recessive or compound heterozygosity model.");
 					}
+                }
+                models = mods.toArray(new String[0]);
 				break;
 			default:
 				argList.add(args[i]);
 			}
 		}
-		
-		if(argList.size() != 1){
-			help();
-		}
-
-//		ColStart = Integer.parseInt(argList.get(1)) -1; //shift to 0 based.
-                ColStart = 9; //start column or vcf file, 0 based.
-		new ExomeModelFilterV2().runApp(argList.get(0));
-	}
+    }
+    
+    /**
+     * Check conflicting parameters.
+     * @return error message, null if none.
+     */
+    private String optionError(){
+        if (cacheFile != null && (vcfFile != null || !regions.isEmpty() || regionsFile != null || shardSize >= 0 || splitAlleles)) {
+            return "genotype cache (-cache) is read instead of the vcf, -i, -region, -regions, -shard"
+                    + " and -split can not be used, please split multi-allelic sites when converting.";
+        }
+        if (vcfFile == null && (!regions.isEmpty() || regionsFile != null || shardSize >= 0)) {
+            return "region query (-region/-regions) or sharding (-shard) requires an indexed vcf file (-i).";
+        }
+        if (geneIntervalFile != null && !geneAnnoFile.isEmpty()) {
+            return "please use only one of gene annotation file[-a] or gene intervals[-g].";
+        }
+        if (geneIntervalFile != null && altHomoChecking4CompundHet) {
+            return "-c requires the alt-homo counts in gene annotation file[-a].";
+        }
+        if (models.length > 1 && outPrefix == null) {
+            return "output prefix (-o) is required for running multiple models.";
+        }
+        if (resume && checkpointFile == null) {
+            return "-resume requires the checkpoint file (-checkpoint).";
+        }
+        if (checkpointFile != null && (outPrefix == null || (vcfFile == null && cacheFile == null))) {
+            return "checkpoints (-checkpoint) require output files (-o), and the vcf file (-i) or genotype cache (-cache).";
+        }
+        if (checkpointFile != null && (!regions.isEmpty() || regionsFile != null || shardSize >= 0)) {
+            return "checkpoints (-checkpoint) can not be used with -region, -regions or -shard.";
+        }
+        return null;
+    }
+    
+    /**
+     * Parameters of a run, without those not changing the results, checked when resuming.
+     * @param args
+     * @return
+     */
+    private static String runSignature(String[] args){
+        StringJoiner sj = new StringJoiner(" ");
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+            case "-resume":
+                break;
+            case "-t":
+            case "-membudget":
+            case "-metrics":
+            case "-metricsout":
+            case "-checkpointinterval":
+                i++;
+                break;
+            default:
+                sj.add(args[i]);
+            }
+        }
+        return sj.toString();
+    }
 	
+    /**
+     * Size in bytes, with optional unit k, m or g, eg. 512m.
+     * @param s
+     * @return 
+     * @throws IllegalArgumentException for invalid sizes.
+     */
+    private static long parseSize(String s){
+        String n = s.toLowerCase();
+        int shift = n.endsWith("k") ? 10 : n.endsWith("m") ? 20 : n.endsWith("g") ? 30 : 0;
+        try {
+            return Long.parseLong(shift == 0 ? n : n.substring(0, n.length() - 1)) << shift;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid size: " + s + ", eg. 4g, 512m.");
+        }
+    }
+    
+    /**
+     * Convert the vcf to a genotype cache file, for later runs by -cache.
+     * @param file
+     */
+    private void convertVcf(String file){
+        try (VcfLineReader in = new VcfLineReader(openVcf())) {
+            long t = System.currentTimeMillis();
+            int n = GenotypeCache.convert(in, file, splitAlleles);
+            System.err.println("Converted " + n + " sites to genotype cache: " + file + ", in "
+                    + (System.currentTimeMillis() - t) / 1000.0 + "s.");
+        } catch (IOException e) {
+            System.err.println("ERROR: failed to convert vcf to genotype cache: " + file + ", " + errorMessage(e));
+            System.exit(-1);
+        }
+    }
+    
+    /**
+     * Message of an error of a run, without the "ERROR: " of messages for users.
+     * @param e
+     * @return 
+     */
+    private static String errorMessage(Throwable e){
+        String m = e.getMessage();
+        if (m != null && m.startsWith("ERROR: ")) {
+            return m.substring("ERROR: ".length());
+        }
+        return m != null && e.getClass() == IllegalArgumentException.class ? m : e.toString();
+    }
+
 	private static void help() {
 		System.out.println("--------------------------------");
-		System.out.println("    ExomeModelFilter    version: 2.5.3     Author:wavefancy@gmail.com");
+		System.out.println("    ExomeModelFilter    version: 2.6     Author:wavefancy@gmail.com");
 		System.out.println("--------------------------------");
 		System.out.println("Usages: \nparameter1: ped file."
+                + "\n       or: convert [-i file] [-split] [-region ...] out.cache, convert the vcf to a binary genotype cache."
 //				+ "\nparameter2(int): Column index for individual seq. starts(Inclusive)."
-				+ "\nparameter(-t  int, optional): number of cpus, default all available."
+				+ "\nparameter(-t  int, optional): number of worker threads, default all available cpus."
 				+ "\nparameter(-mod String, optional): "
                 + "\n          dom|rec|com for dominant, recessive or compound heterozygous model, default: dom."
                 + "\n          eshare: estimate the rare variant sharing rate (currently version, only support auto-chromosome.)."
+                + "\n          multiple models separated by ',', eg. dom,rec,com, run in one pass of the vcf."
+                + "\nparameter(-o String, optional, required for multiple models): output prefix, results of"
+                + "\n          each model are written to prefix.model.txt, eg. prefix.dom.txt."
+                + "\nparameter(-i file, optional): read vcf from file instead of stdin, bgzip compressed (.gz)"
+                + "\n          blocks are decompressed in parallel."
+                + "\nparameter(-region String, optional, requires -i): only check sites in region chr:start-end,"
+                + "\n          file.gz should be bgzip compressed and tabix indexed (file.gz.tbi)."
+                + "\nparameter(-regions file, optional, requires -i): only check sites in regions of a bed file."
+                + "\nparameter(-cache file, optional): read the genotype cache written by convert instead of the vcf,"
+                + "\n          much faster for running several models or ped files on the same vcf."
+                + "\nparameter(-shard contig|int, optional, requires -i): split the indexed vcf by contig or by"
+                + "\n          shards of int bp, shards are read and checked in parallel, output in genome order."
+                + "\nparameter(-split, optional): split multi-allelic sites, each alt. allele is checked as one site,"
+                + "\n          alleles of GT are recoded as bcftools norm -m-, other sub-fields (eg. AD, PL) are not split."
+                + "\nparameter(-mingq int, optional): genotypes with GQ lower than int are treated as missing."
+                + "\nparameter(-mindp int, optional): genotypes with DP lower than int are treated as missing,"
+                + "\n          GQ and DP are found by the FORMAT column, missing values are not filtered."
+                + "\nparameter(-build hg19|hg38, optional): genome build, sites in the pseudo-autosomal regions of X"
+                + "\n          and Y are checked as autosomal sites, alt-homo is not permitted for males."
                 + "\nparameter(-m  int, optional): maxmium number of candidate families, (Default 5000, only for dom model, <=)."
-                + "\nparameter(-a file, optional, required for compound hetero.), gene annotation file."
+                + "\nparameter(-a file, optional, required for compound hetero. if no -g), gene annotation file."
+                + "\nparameter(-g file, optional, compound hetero. only), gene intervals in bed (chr start end name)"
+                + "\n          or gtf (gene features) format, vcf sites are assigned to overlapping genes, instead of -a."
                 + "\nparameter(-c, optional, only for compound hetero., default false) at least one candidate sites\n" +
                   "         in candidate site set with alt-homo genotype is zero general population, "
                 + "         value 0 of 6th column in gene annotation file."
                 + "\nparameter(-cmnp, optional, only applicable for compound hetero.), close the function to remove MNP sites."
-				);
+                + "\nparameter(-membudget size, optional, only for compound hetero.): memory for packed genotypes of"
+                + "\n          candidate sites, out of java heap, eg. 4g, then a temp file is used. Default: half of -Xmx."
+                + "\nparameter(-sorted, optional, only for compound hetero.), vcf is sorted by position, check and output"
+                + "\n          each gene once the stream passed its last annotated site, and release its variants."
+                + "\nparameter(-metrics sec, optional): report throughput to stderr every sec seconds (0: only at the end),"
+                + "\n          and time by stage, sites rejected by each filter and candidate families at the end."
+                + "\nparameter(-metricsout file, optional): write the final metrics report as json."
+                + "\nparameter(-daemon pipe, optional): stay resident, read jobs from a named pipe (mkfifo), one per line,"
+                + "\n          eg. '-i file.vcf.gz -o prefix -mod dom,rec', with distinct prefixes. The ped file and"
+                + "\n          gene annotation are loaded once, -t -a -g -c -cmnp -sorted -membudget -jobs are only given here,"
+                + "\n          other parameters given here are defaults of each job. prefix.done is written after a"
+                + "\n          job, 'OK' or 'ERROR message'. The line 'stop' stops the daemon after the remaining jobs."
+                + "\nparameter(-jobs int, optional, only for -daemon): jobs running at the same time, default 4,"
+                + "\n          others wait in the order read, each job has its own worker threads (-t)."
+                + "\nparameter(-checkpoint file, optional, requires -o and -i or -cache): record the input position,"
+                + "\n          output lengths and compound hetero. sites (file.com) periodically, to resume a killed run."
+                + "\nparameter(-checkpointinterval sec, optional): seconds between checkpoints, default 300."
+                + "\nparameter(-resume, optional): continue from the checkpoint of a killed run, with the same parameters,"
+                + "\n          or start from the beginning if there is no checkpoint yet."
+);
 		System.out.println("Notes:"
-				+ "\n1. Read vcf file from stdin and output to stdout."
+				+ "\n1. Read vcf file from stdin (or -i) and output to stdout, or files by -o."
                 + "\n2. Code for gender: 1 for male, 2 for female."
 				+ "\n3. Column index starts from 1." );
 //				+ "\n4. Output PED file to stdout, MAP file to stderr.");
@@ -214,9 +629,75 @@ public class ExomeModelFilterV2 {
 		familyMap.get(fName).add(idName);
 	}
 	
+    /**
+     * Whether model m is in the list of running models.
+     * @param m
+     * @return 
+     */
+    private boolean hasModel(String m){
+        return modelIndex(m) >= 0;
+    }
+
+    /**
+     * Use compiled families and packed genotypes directly, without the ped file,
+     * #CHROM line or gene annotation, for benchmarks of the models (BIDMC/bench).
+     * @param idx
+     * @param store packed genotypes checked by checkGene(), null if not used.
+     */
+    void useFamilies(FamilyIndex idx, PackedGenotypeStore store){
+        famIndex = idx;
+        ColStart = idx.colStart;
+        comStore = store;
+    }
+
+    /**
+     * Whether all running models reject a line by the control set, dom and rec.
+     * @return 
+     */
+    private boolean controlsFirst(){
+        for (String m : models) {
+            if (!m.equals("dom") && !m.equals("rec")) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Index of model m in models, -1 if not running.
+     * @param m
+     * @return 
+     */
+    private int modelIndex(String m){
+        for (int i = 0; i < models.length; i++) {
+            if (models[i].equals(m)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+	
 	private void runApp(String pedFile) {
 		try {
-			Files.lines(Paths.get(pedFile))
+			loadPed(pedFile);
+			runJob();
+		} catch (IOException | RuntimeException e) {
+			if (!(e instanceof IOException || e instanceof IllegalArgumentException)) {
+			    e.printStackTrace(); //not an error of the input.
+			}
+			System.err.println("ERROR: " + errorMessage(e));
+			System.exit(-1);
+		}
+	}
+	
+    /**
+     * Read the ped file, and the gene annotation for compound hetero. model,
+     * only once for all jobs of the daemon.
+     * @param pedFile
+     * @throws IOException 
+     */
+	private void loadPed(String pedFile) throws IOException {
+			Files.lines(Paths.get(pedFile), StandardCharsets.ISO_8859_1) //as the vcf header, ids match byte by byte.
 				.map(String::trim)
 				.filter(s-> !s.isEmpty())
 				.forEach(s -> {
@@ -246,420 +727,1262 @@ public class ExomeModelFilterV2 {
 				});
 			
             //for compound heterozygous model.
-            //Read gene annotation file. 
-            if (imodel.equalsIgnoreCase("com")) { //for compound heterozyous model.
-                try {
-                    Files.lines(Paths.get(geneAnnoFile))
-                        .map(String::trim)
-                        .filter(s -> !s.isEmpty())
-                        .forEach(s -> {
-                            String[] ss = s.split("\\s+"); //chr pos ref alt geneName.
-                            if (!geneAnnoMap.containsKey(ss[4])) {
-                                geneAnnoMap.put(ss[4], new LinkedList<String>());
-                            }
-                            StringJoiner sj = new StringJoiner("-");
-                            for (int i = 0; i <= 3; i++) {
-                                 sj.add(ss[i]);
-                            }
-                            geneAnnoMap.get(ss[4]).add(sj.toString());
-                            
-                            //althomo checking
-                            if (altHomoChecking4CompundHet) {
-                                if (variantAltHomoCountMap.containsKey(sj.toString())) {
-                                    System.err.println("WARN: duplicated annotaion for this site, only use the first entry: " + sj.toString());
-                                }else{
-                                    variantAltHomoCountMap.put(sj.toString(), ss[5]);
-                                }
-                            }
-                        });
-                } catch (Exception ioException) {
-                    System.err.println("ERROR: Can not find gene annotation file[-a]: " + geneAnnoFile);
-                    System.exit(-1);
+            //Read gene annotation file, always for the daemon if given, jobs may run com. 
+            if (hasModel("com") || (daemonPipe != null && (geneIntervalFile != null || !geneAnnoFile.isEmpty()))) {
+                if (geneIntervalFile != null) {
+                    try {
+                        geneIntervals = new GeneIntervals(geneIntervalFile);
+                    } catch (Exception ioException) {
+                        System.err.println("ERROR: Can not read gene intervals file[-g]: " + geneIntervalFile + ", " + errorMessage(ioException));
+                        System.exit(-1);
+                    }
+                    if (sortedInput) {
+                        geneIntervals.addEnds(geneEnds);
+                    }
+                }else{
+                    try {
+                        loadGeneAnnotation();
+                    } catch (Exception ioException) {
+                        System.err.println("ERROR: Can not read gene annotation file[-a]: " + geneAnnoFile + ", " + errorMessage(ioException));
+                        System.exit(-1);
+                    }
+                }
+                if (sortedInput) {
+                    geneEnds.build();
                 }
                 
             }
-            
-			// Read vcf from stdin and output stdout.
-			BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
-			//BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(System.out));
-			in.lines()
-				.map(String::trim)
-				.filter(s-> !s.isEmpty())
-				.forEach(s-> processOne(s));
-			in.close();
+	}
+	
+    /**
+     * Check the vcf (or the genotype cache) by all models, after the ped file was read.
+     * @throws IOException 
+     */
+	private void runJob() throws IOException {
+			// Read vcf from stdin or -i, or the genotype cache, and output stdout.
+			VcfLineReader in = null;
+			try {
+				if (cacheFile != null) {
+				    try {
+				        genotypeCache = new GenotypeCache(cacheFile);
+				    } catch (IOException e) {
+				        throw new IOException("ERROR: Can not read genotype cache[-cache]: " + cacheFile + ", " + errorMessage(e), e);
+				    }
+				}else{
+				    in = new VcfLineReader(openVcf());
+				}
+				writers = new OutputStream[models.length];
+				if (checkpointFile != null) {
+				    openCheckpoint();
+				}
+				for (int m = 0; m < models.length; m++) {
+				    writers[m] = new BufferedOutputStream(outPrefix == null ? System.out
+				            : checkpointFile != null ? Channels.newOutputStream(outChannels[m])
+				            : Files.newOutputStream(Paths.get(outPrefix + "." + models[m] + ".txt")), 1 << 16);
+				}
+				if (metrics != null) {
+				    metrics.start(metricsInterval);
+				}
+				runPipeline(in);
 			
             
-            if(imodel.equalsIgnoreCase("com")){
-                compoundHeterozygousModel();
-            }
+                if(hasModel("com")){
+                    compoundHeterozygousModel();
+                }
             
-            System.out.flush();
-            System.err.flush();
-//			writer.flush();
-//			writer.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.exit(-1);
-		}
-	}
-	
-	/**
-	 * Check if any body having alt. allele.
-	 * @param names
-	 * @param genotypes
-	 * @return
-	 */
-//	private static boolean anyAltAllele(List<String> names, String[] genotypes) {
-//		for (String string : names) {
-//			String geno = genotypes[nameIndexMap.get(string)];
-//			if(geno.charAt(0) != '.' && (geno.charAt(0) == '1' || geno.charAt(2) == '1'))
-//				return true;
-//		}
-//		
-//		return false; //all missing also return false.
-//	}
-	
-	/**
-	 * Check if all member having alt. allele,(genotype 11 or 01).
-         * return false if all member are missing.
-	 * @param names
-	 * @param genotypes
-	 * @return
-	 */
-	private static boolean allAltAlleleAllMissingFalse(List<String> names, String[] genotypes){
-		String[] nonMissingN = names.stream()
-				.filter(s -> {					
-					return genotypes[nameIndexMap.get(s)].charAt(0) != '.';})
-				.toArray(String[]::new);
-		
-		if (nonMissingN.length <= 0) { //all missing.
-			return false;
-		}
-		
-		//check non-missing individual, if somebody without alt. allele.
-		for (String string : nonMissingN) {
-			String geno = genotypes[nameIndexMap.get(string)]; //check 00 or 0|. or .|0.
-			if((geno.charAt(0) == '0' || geno.charAt(0) == '.' ) && ( geno.charAt(2) == '0' || geno.charAt(2) == '.')) //no alt. allele.
-				return false;
-		}
-		
-		return true;
+				for (OutputStream w : writers) {
+				    if (outPrefix == null) {
+				        w.flush();
+				    }else{
+				        w.close();
+				    }
+				}
+				if (checkpointFile != null) { //completed, nothing to resume.
+				    if (comJournal != null) {
+				        comJournal.close();
+				    }
+				    Files.deleteIfExists(Paths.get(checkpointFile));
+				    Files.deleteIfExists(Paths.get(checkpointFile + ".com"));
+				}
+                if (metrics != null) {
+                    metrics.stop();
+                    System.err.println(metrics.summary());
+                    if (metricsOut != null) {
+                        metrics.writeJson(metricsOut, nCPUs);
+                    }
+                }
+                System.out.flush();
+                System.err.flush();
+			} finally { //also after errors, a daemon job does not leave them behind.
+			    if (in != null) {
+			        in.close();
+			    }
+			    if (comStore != null) {
+			        comStore.close();
+			    }
+			    if (metrics != null) {
+			        metrics.stop();
+			    }
+			}
 	}
     
     /**
-     * Estimate the allele sharing rate.
-     * Only use families with more than one non-missing member.
-     * Remove family if any individual with alt-homo genotype. hard to estimate the rate.
-     * 
-     * @param names
-     * @param genotypes
-     * @return [number of individual with het genotype, total number of individuals in a family.]
+     * Open the outputs and the com journal for checkpoints, when resuming, read the
+     * checkpoint and truncate them to the checkpoint.
+     * @throws IOException 
      */
-    private static long [] estimateShareRate(List<String> names, String[] genotypes){
-        long[] re = {-1,-1};
-        String[] nonMissingN = names.stream()
-				.filter(s -> {					
-					return genotypes[nameIndexMap.get(s)].charAt(0) != '.';})
-				.toArray(String[]::new);
-		
-		if (nonMissingN.length <= 1) { //all missing or only 1 individual.
-			return re;
-		}
-        
-        //check any alt-homo
-        boolean anyAltHomo = Arrays.stream(nonMissingN)
-                  .anyMatch(s->{
-                      return genotypes[nameIndexMap.get(s)].charAt(0) != '0' && genotypes[nameIndexMap.get(s)].charAt(2) != '0';
-                  });
-                    
-        if(anyAltHomo){
-            return re;
+    private void openCheckpoint() throws IOException{
+        Properties p = null;
+        resumePosition = -1;
+        if (resume) {
+            p = new Properties();
+            try (InputStream in = Files.newInputStream(Paths.get(checkpointFile))) {
+                p.load(in);
+            } catch (NoSuchFileException e) { //killed before the first checkpoint.
+                System.err.println("Warnning: no checkpoint to resume, start from the beginning: " + checkpointFile);
+                p = null;
+            }
+        }
+        if (p != null) {
+            if (!runArgs.equals(p.getProperty("args"))) {
+                throw new IOException("ERROR: parameters differ from the checkpoint: " + p.getProperty("args"));
+            }
+            resumePosition = Long.parseLong(p.getProperty("position"));
+        }
+        outChannels = new FileChannel[models.length];
+        for (int m = 0; m < models.length; m++) {
+            outChannels[m] = FileChannel.open(Paths.get(outPrefix + "." + models[m] + ".txt"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            long len = p == null ? 0 : Long.parseLong(p.getProperty("out." + models[m]));
+            outChannels[m].truncate(len);
+            outChannels[m].position(len);
+        }
+        comJournal = null;
+        if (hasModel("com")) {
+            journalChannel = FileChannel.open(Paths.get(checkpointFile + ".com"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            journalLength = p == null ? 0 : Long.parseLong(p.getProperty("journal"));
+            journalChannel.truncate(journalLength);
+            journalChannel.position(journalLength);
+            comJournal = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(journalChannel), 1 << 16));
         }
-        
-        // number of individual with het genotype.
-        re[0] = Arrays.stream(nonMissingN)
-                  .filter(s -> {
-                      return genotypes[nameIndexMap.get(s)].charAt(0) != '0' || genotypes[nameIndexMap.get(s)].charAt(2) != '0';
-                  })
-                  .count();
-        
-        re[1] = nonMissingN.length;
-        return re;
     }
-	
-	/**
-	 * Count the number of nonmissing individuals.
-	 * @param names
-	 * @param genotypes
-	 * @return
-	 */
-	private static long nonMissingCount(List<String> names, String[] genotypes) {
-		return names.stream()
-			.filter(s -> genotypes[nameIndexMap.get(s)].charAt(0) != '.')
-			.count();
-	}
-        
-        /**
-         * Get nonmissing id names.
-         * @param names
-         * @param genotypes
-         * @return 
-         */
-    private static String[] nonMissingNames(List<String> names, String[] genotypes) {
-		return names.stream()
-			.filter(s -> genotypes[nameIndexMap.get(s)].charAt(0) != '.')
-			.toArray(String[]::new);
-	}
-	
-	/**
-	 * Check if all individuals in a family are missing.
-	 * @param names
-	 * @param genotypes
-	 * @return
-	 */
-	private static boolean allMissing(List<String> names, String[] genotypes){
-		return names.stream()
-			.allMatch(s -> genotypes[nameIndexMap.get(s)].charAt(0) == '.');
-	}
-        
-        /**
-         * Check whether any individual from 'names' has refHomo[11] genotype.
-         * @param names
-         * @param genotypes
-         * @return true if 
-         */
-    private static boolean hasRefHomo(List<String> names, String[] genotypes){
-//            names.stream()
-//              .forEach(s -> System.out.println(s + ":" + genotypes[nameIndexMap.get(s)]));
-            
-            boolean hasRefHomo = names.stream()        // anyMath return false if stream is empty.
-               .filter(s -> genotypes[nameIndexMap.get(s)].charAt(0) != '.') //non-missing individuals.
-               .anyMatch(s -> genotypes[nameIndexMap.get(s)].charAt(0) != '0'
-                           && genotypes[nameIndexMap.get(s)].charAt(2) != '0'
-               );
-            return hasRefHomo;           
+    
+    /**
+     * Write a checkpoint after a batch was output, replacing the last one atomically.
+     * Outputs and the com journal are flushed to disk first.
+     * @param position input position after the batch.
+     * @throws IOException 
+     */
+    private void writeCheckpoint(long position) throws IOException{
+        Properties p = new Properties();
+        p.setProperty("input", cacheFile != null ? cacheFile : vcfFile);
+        p.setProperty("args", runArgs);
+        p.setProperty("position", Long.toString(position));
+        for (int m = 0; m < models.length; m++) {
+            writers[m].flush();
+            outChannels[m].force(false);
+            p.setProperty("out." + models[m], Long.toString(outChannels[m].size()));
         }
-        
-        /**
-         * Check whether all individuals carrying altHomo[11] genotype.
-         * ** if all individuals are missing, return false.
-         * @param names
-         * @param genotypes
-         * @return 
-         */
-        private static boolean allAltHomoAllMissingFalse(List<String> names, String[] genotypes){
-            String[] nonMissing = nonMissingNames(names, genotypes);
-            if(nonMissing.length == 0){
-                return false;
-            }
-            
-            long cc =  Arrays.stream(nonMissing)
-              .filter(s-> genotypes[nameIndexMap.get(s)].charAt(0) != '0'
-                         && genotypes[nameIndexMap.get(s)].charAt(2) != '0'
-              ).count();
-            
-            if(cc == nonMissing.length){
-                return true;
+        if (comJournal != null) {
+            comJournal.flush();
+            journalChannel.force(false);
+            p.setProperty("journal", Long.toString(journalChannel.size()));
+        }
+        Path tmp = Paths.get(checkpointFile + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            p.store(out, "ExomeModelFilterV2 checkpoint");
+        }
+        Files.move(tmp, Paths.get(checkpointFile), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * Add the com sites and stream positions of the journal again, up to the checkpoint,
+     * genes completed before the checkpoint were output already.
+     * @throws IOException 
+     */
+    private void replayComJournal() throws IOException{
+        if (comJournal == null || journalLength == 0) {
+            return;
+        }
+        journalChannel.position(0);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(journalChannel), 1 << 16));
+        replaying = true;
+        int t;
+        while ((t = in.read()) >= 0) {
+            if (t == 'A') {
+                String contig = in.readUTF();
+                checkGenes(geneEnds.advance(contig, in.readInt()));
             }else{
-                return false;
+                addComRow(readComRow(in));
             }
         }
-        
-         /**
-         * Check whether all individuals carrying refHomo genotype.
-         * ** 1. if all individuals are missing, return true.
-         * ** 2. if all individuals are refHomo (00) return true.
-         * @param names
-         * @param genotypes
+        replaying = false;
+        journalChannel.position(journalLength);
+    }
+    
+    /**
+     * Journal record of a com site, 'R' and the fields.
+     * @param r
+     * @throws IOException 
+     */
+    private void writeComRow(ComRow r) throws IOException{
+        DataOutputStream out = comJournal;
+        out.write('R');
+        out.writeUTF(r.contig);
+        out.writeLong(r.key);
+        out.writeInt(r.pos);
+        out.writeInt(r.genes == null ? -1 : r.genes.length);
+        if (r.genes != null) {
+            for (int g : r.genes) {
+                out.writeInt(g);
+            }
+            out.writeUTF(r.ref);
+            out.writeUTF(r.alt);
+        }
+        out.writeBoolean(r.onXY);
+        out.writeInt(r.packed.length);
+        for (long v : r.packed) {
+            out.writeLong(v);
+        }
+        out.writeInt(r.fams.length);
+        for (int i = 0; i < r.fams.length; i++) {
+            out.writeInt(r.fams[i]);
+            out.writeUTF(r.genos[i]);
+        }
+    }
+    
+    private static ComRow readComRow(DataInputStream in) throws IOException{
+        ComRow r = new ComRow();
+        r.contig = in.readUTF();
+        r.key = in.readLong();
+        r.pos = in.readInt();
+        int n = in.readInt();
+        if (n >= 0) {
+            r.genes = new int[n];
+            for (int i = 0; i < n; i++) {
+                r.genes[i] = in.readInt();
+            }
+            r.ref = in.readUTF();
+            r.alt = in.readUTF();
+        }
+        r.onXY = in.readBoolean();
+        r.packed = new long[in.readInt()];
+        for (int i = 0; i < r.packed.length; i++) {
+            r.packed[i] = in.readLong();
+        }
+        n = in.readInt();
+        r.fams = new int[n];
+        r.genos = new String[n];
+        for (int i = 0; i < n; i++) {
+            r.fams[i] = in.readInt();
+            r.genos[i] = in.readUTF();
+        }
+        return r;
+    }
+    
+    /**
+     * Resident daemon, jobs are read from a named pipe, one job per line, up to -jobs run at
+     * the same time, others wait in the order read. Each job has its own worker threads (-t).
+     * The pipe is reopened once all clients closed it, lines shorter than PIPE_BUF (4k) from
+     * several clients are not mixed.
+     * @param pedFile
+     */
+    private void runDaemon(String pedFile){
+        if (!Files.exists(Paths.get(daemonPipe))) {
+            System.err.println("ERROR: named pipe of daemon jobs does not exist, please create it by mkfifo: " + daemonPipe);
+            System.exit(-1);
+        }
+        try {
+            loadPed(pedFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(-1);
+        }
+        System.err.println("Daemon ready, " + pedIdSet.size() + " individuals, reading jobs from: " + daemonPipe);
+        ExecutorService jobs = Executors.newFixedThreadPool(maxJobs, r -> new Thread(r, "daemon-job"));
+        while (true) {
+            //blocks until a client opens the pipe for writing.
+            try (BufferedReader br = Files.newBufferedReader(Paths.get(daemonPipe), StandardCharsets.UTF_8)) {
+                String s;
+                while ((s = br.readLine()) != null) {
+                    s = s.trim();
+                    if (s.isEmpty() || s.startsWith("#")) {
+                        continue;
+                    }
+                    if (s.equals("stop")) { //after the running and waiting jobs.
+                        System.err.println("Daemon stopping, after the remaining jobs.");
+                        jobs.shutdown();
+                        return;
+                    }
+                    final String job = s;
+                    jobs.execute(() -> new ExomeModelFilterV2(this).runDaemonJob(job));
+                }
+            } catch (IOException e) {
+                System.err.println("ERROR: Can not read daemon jobs from: " + daemonPipe);
+                e.printStackTrace();
+                System.exit(-1);
+            }
+        }
+    }
+    
+    /**
+     * Run one job of the daemon, in its own instance, the parameters of the daemon are the defaults.
+     * Errors of the parameters or the input, eg. a malformed line or a truncated file, only stop
+     * this job, and are written to prefix.done.
+     * @param job parameters of the job.
+     */
+    private void runDaemonJob(String job){
+        long t = System.currentTimeMillis();
+        String[] args = job.split("\\s+");
+        String error = null;
+        try {
+            List<String> argList = new ArrayList<>();
+            parseOptions(daemonArgs, 0, argList);
+            argList.clear();
+            parseOptions(args, 0, argList);
+            if (outPrefix != null) {
+                Files.deleteIfExists(Paths.get(outPrefix + ".done"));
+            }
+            error = jobError(args, argList);
+            if (error == null) {
+                runJob();
+            }
+        } catch (IOException | RuntimeException | OutOfMemoryError e) {
+            if (!(e instanceof IOException || e instanceof IllegalArgumentException)) {
+                e.printStackTrace(); //not an error of the input.
+            }
+            error = errorMessage(e);
+            if (writers != null) {
+                for (OutputStream w : writers) {
+                    try {
+                        w.close();
+                    } catch (IOException | RuntimeException ignored) {
+                    }
+                }
+            }
+        }
+        String status = error == null ? "OK " + (System.currentTimeMillis() - t) / 1000.0 + "s" : "ERROR " + error;
+        System.err.println("Job " + status + ": " + job);
+        if (outPrefix != null) {
+            try {
+                Path tmp = Paths.get(outPrefix + ".done.tmp");
+                Files.write(tmp, (status + "\n").getBytes(StandardCharsets.UTF_8));
+                Files.move(tmp, Paths.get(outPrefix + ".done"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.err.println("Warnning: Can not write job status: " + outPrefix + ".done");
+            }
+        }
+    }
+    
+    /**
+     * Check the parameters of a daemon job, and the individuals of its input.
+     * @param args
+     * @param argList parameters not recognized.
+     * @return error message, null if none.
+     * @throws IOException 
+     */
+    private String jobError(String[] args, List<String> argList) throws IOException{
+        for (String a : args) {
+            if (DAEMON_ONLY.contains(a)) {
+                return a + " can only be given when starting the daemon.";
+            }
+        }
+        if (!argList.isEmpty()) {
+            return "unknown parameters " + argList + ", the ped file is given when starting the daemon.";
+        }
+        if (outPrefix == null) {
+            return "output prefix (-o) is required for daemon jobs.";
+        }
+        if (vcfFile == null && cacheFile == null) {
+            return "vcf file (-i) or genotype cache (-cache) is required for daemon jobs.";
+        }
+        if (hasModel("com") && geneIntervalFile == null && geneAnnoFile.isEmpty()) {
+            return "compound hetero. model requires -a or -g when starting the daemon.";
+        }
+        if (checkpointFile != null) {
+            return "checkpoints (-checkpoint) are not supported for daemon jobs.";
+        }
+        String error = optionError();
+        if (error != null) {
+            return error;
+        }
+        String chrom = null;
+        if (cacheFile != null) {
+            chrom = new GenotypeCache(cacheFile).chromLine();
+        }else{
+            try (VcfLineReader in = new VcfLineReader(vcfFile.endsWith(".gz") ? new BgzfInputStream(vcfFile, 0)
+                    : Files.newInputStream(Paths.get(vcfFile)))) {
+                while ((chrom = in.readLine()) != null && !chrom.startsWith("#CHROM")) {
+                }
+            }
+        }
+        if (chrom == null) {
+            return "no #CHROM line in vcf: " + vcfFile;
+        }
+        List<String> errors = sampleErrors(chrom.trim().split("\\s+"));
+        if (!errors.isEmpty()) {
+            return errors.size() + " errors of individuals, " + String.join(", ", errors.subList(0, Math.min(3, errors.size())));
+        }
+        return null;
+    }
+    
+    /**
+     * Read gene annotation file for compound hetero. model.
+     * Variants of each gene are kept as packed keys, in the order of the file.
+     * @throws IOException 
+     */
+    private void loadGeneAnnotation() throws IOException{
+        try (BufferedReader br = Files.newBufferedReader(Paths.get(geneAnnoFile), StandardCharsets.ISO_8859_1)) {
+            String s;
+            while ((s = br.readLine()) != null) {
+                s = s.trim();
+                if (s.isEmpty()) {
+                    continue;
+                }
+                String[] ss = s.split("\\s+"); //chr pos ref alt geneName.
+                int pos = Integer.parseInt(ss[1]);
+                long key = variantKeys.add(ss[0], pos, ss[2], ss[3]);
+                geneList(ss[4]).add(key);
+                if (sortedInput) {
+                    geneEnds.add(ss[4], ss[0], pos);
+                    variantGeneCount.addTo(key, 1);
+                }
+                
+                //althomo checking
+                if (altHomoChecking4CompundHet) {
+                    if (variantAltHomoZero.containsKey(key)) {
+                        System.err.println("WARN: duplicated annotaion for this site, only use the first entry: " + variantKeys.format(key));
+                    }else{
+                        variantAltHomoZero.put(key, ss[5].equalsIgnoreCase("0") ? 1 : 0);
+                    }
+                }
+            }
+        }
+    }
+    
+    private LongList geneList(String gene){
+        LongList l = geneAnnoMap.get(gene);
+        if (l == null) {
+            l = new LongList();
+            geneAnnoMap.put(gene, l);
+        }
+        return l;
+    }
+    
+    /**
+     * Open the vcf input, stdin, a plain text file, a bgzip file or regions of an indexed bgzip file.
+     * @return
+     * @throws IOException 
+     */
+    private InputStream openVcf() throws IOException{
+        if (vcfFile == null) {
+            return System.in;
+        }
+        if (regionsFile != null) {
+            try {
+                regions.addAll(TabixIndex.readBed(regionsFile));
+            } catch (IOException | RuntimeException e) {
+                throw new IOException("ERROR: Can not read regions file[-regions]: " + regionsFile + ", " + errorMessage(e), e);
+            }
+        }
+        if (!vcfFile.endsWith(".gz")) {
+            if (!regions.isEmpty() || shardSize >= 0) {
+                throw new IOException("ERROR: region query or sharding requires bgzip compressed and tabix indexed vcf: " + vcfFile);
+            }
+            return new FileInputStream(vcfFile); //skip() seeks when resuming.
+        }
+        if (shardSize >= 0) {//only read the header here, shards are read by workers.
+            tabix = readTabix();
+            shards = tabix.shards(regions, shardSize);
+            return new BgzfInputStream(vcfFile, 0);
+        }
+        BgzfInputStream bgz = new BgzfInputStream(vcfFile, nCPUs);
+        if (regions.isEmpty()) {
+            return bgz;
+        }
+        return new RegionInputStream(bgz, readTabix(), regions);
+    }
+    
+    private TabixIndex readTabix() throws IOException{
+        try {
+            return new TabixIndex(vcfFile + ".tbi");
+        } catch (IOException e) {
+            throw new IOException("ERROR: Can not read tabix index: " + vcfFile + ".tbi", e);
+        }
+    }
+    
+    /**
+     * Read and check one shard of the indexed vcf, run by worker threads.
+     * Results of all batches in the shard are merged to one batch.
+     * @param shard
+     * @return
+     * @throws IOException 
+     */
+    private Batch processShard(TabixIndex.Region shard) throws IOException{
+        Batch re = new Batch(null);
+        try (VcfLineReader in = new VcfLineReader(new RegionInputStream(new BgzfInputStream(vcfFile, 0), tabix, shard))) {
+            VcfLineReader.Block block;
+            while ((block = in.readBlock(BATCH_SIZE)) != null) {
+                Batch b = processBatch(new Batch(block));
+                for (int m = 0; m < models.length; m++) {
+                    re.out[m].append(b.out[m]);
+                }
+                re.comRows.addAll(b.comRows);
+                if (b.lastContig != null) {
+                    re.lastContig = b.lastContig;
+                    re.lastPos = b.lastPos;
+                }
+            }
+        }
+        return re;
+    }
+    
+    /**
+     * One site for the compound hetero. model, sharing alt. allele with at least one case family.
+     */
+    private static class ComRow {
+        String contig;
+        long key;
+        int pos;
+        int[] genes;  //overlapping gene ids, only for gene intervals (-g).
+        String ref;
+        String alt;
+        boolean onXY;
+        long[] packed;
+        int[] fams;
+        String[] genos;
+    }
+    
+    /**
+     * One block of vcf lines, and the results after classified by a worker.
+     */
+    private class Batch {
+        final VcfLineReader.Block block;
+        final ByteOutput[] out = new ByteOutput[models.length]; //output of each model.
+        final List<ComRow> comRows = new LinkedList<>(); //only for com model.
+        String lastContig = null; //position of the last line, for streaming com model.
+        int lastPos = -1;
+        int siteFrom = 0; //sites [siteFrom, siteTo) of the genotype cache.
+        int siteTo = 0;
+        long position = -1; //input position after this batch, for checkpoints, -1 if none.
+
+        Batch(VcfLineReader.Block block) {
+            this.block = block;
+            for (int m = 0; m < out.length; m++) {
+                out[m] = new ByteOutput(1 << 12);
+            }
+        }
+
+        Batch(int siteFrom, int siteTo) {
+            this(null);
+            this.siteFrom = siteFrom;
+            this.siteTo = siteTo;
+        }
+    }
+    
+    /**
+     * Three stages pipeline:
+     * reader thread -> batches -> worker pool -> writer(current thread).
+     * The queue keeps the submitted batches in input order, and is bounded 
+     * to limit the number of batches in memory.
+     * In sharded mode, the reader only reads the header, and each worker reads one shard.
+     * With the genotype cache, batches are ranges of sites.
+     * With checkpoints, the writer records the input position after a written batch,
+     * when resuming, the titles are not output again, and the input is read from the checkpoint.
+     * Errors of the reader or a worker are thrown by the writer, then the reader and workers are stopped.
+     * @param in null for the genotype cache.
+     * @throws IOException
+     */
+    private void runPipeline(VcfLineReader in) throws IOException{
+        final ExecutorService workers = Executors.newFixedThreadPool(nCPUs, r -> {
+            Thread t = new Thread(r, "vcf-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        final BlockingQueue<Future<Batch>> queue = new ArrayBlockingQueue<>(nCPUs * 4);
+        final Future<Batch> endOfInput = CompletableFuture.completedFuture(null);
+        
+        Thread reader = new Thread(() -> {
+            try {
+                if (genotypeCache != null) {
+                    processHeader(genotypeCache.chromLine());
+                    queue.put(CompletableFuture.completedFuture(resumePosition >= 0 ? new Batch(null) : titleBatch()));
+                    int n = Math.max(1, BATCH_SIZE / genotypeCache.siteBytes());
+                    for (int i = (int) Math.max(0, resumePosition); i < genotypeCache.nSites; i += n) {
+                        final Batch b = new Batch(i, Math.min(genotypeCache.nSites, i + n));
+                        b.position = b.siteTo;
+                        queue.put(workers.submit(() -> processCacheBatch(b)));
+                    }
+                    queue.put(endOfInput);
+                    return;
+                }
+                String s;
+                while (isData == false && (s = in.readLine()) != null) {
+                    s = s.trim();
+                    if (s.isEmpty()) {
+                        continue;
+                    }
+                    //header lines, processed in order before any data.
+                    if (processHeader(s)) {
+                        queue.put(CompletableFuture.completedFuture(resumePosition >= 0 ? new Batch(null) : titleBatch()));
+                    }
+                }
+                if (resumePosition >= 0) {
+                    in.seek(resumePosition);
+                }
+                if (shards != null) {
+                    for (TabixIndex.Region shard : shards) {
+                        queue.put(workers.submit(() -> processShard(shard)));
+                    }
+                    queue.put(endOfInput);
+                    return;
+                }
+                VcfLineReader.Block block;
+                while ((block = in.readBlock(BATCH_SIZE)) != null) {
+                    final Batch b = new Batch(block);
+                    if (checkpointFile != null) {
+                        b.position = in.position();
+                    }
+                    queue.put(workers.submit(() -> processBatch(b)));
+                }
+                queue.put(endOfInput);
+            } catch (IOException | RuntimeException e) { //eg. a truncated file, thrown by the writer.
+                CompletableFuture<Batch> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                try {
+                    queue.put(failed);
+                } catch (InterruptedException stopped) {
+                }
+            } catch (InterruptedException stopped) { //the writer stopped.
+            }
+        }, "vcf-reader");
+        reader.setDaemon(true);
+        reader.start();
+        
+        //writer, output results in input order.
+        try {
+            Future<Batch> f;
+            boolean first = true;
+            long nextCheckpoint = System.currentTimeMillis() + checkpointInterval * 1000L;
+            while ((f = queue.take()) != endOfInput) {
+                Batch b = f.get();
+                if (first && resumePosition >= 0) { //after the header, com sites before the checkpoint.
+                    replayComJournal();
+                }
+                first = false;
+                for (int m = 0; m < models.length; m++) {
+                    b.out[m].writeTo(writers[m]);
+                }
+                for (ComRow r : b.comRows) {
+                    if (comJournal != null) {
+                        writeComRow(r);
+                    }
+                    addComRow(r);
+                }
+                if (sortedInput && b.lastContig != null) {
+                    if (comJournal != null) {
+                        comJournal.write('A');
+                        comJournal.writeUTF(b.lastContig);
+                        comJournal.writeInt(b.lastPos);
+                    }
+                    checkGenes(geneEnds.advance(b.lastContig, b.lastPos));
+                }
+                if (b.position >= 0 && System.currentTimeMillis() >= nextCheckpoint) {
+                    writeCheckpoint(b.position);
+                    nextCheckpoint = System.currentTimeMillis() + checkpointInterval * 1000L;
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("ERROR: interrupted.");
+        } catch (ExecutionException e) { //error of the reader or a worker, eg. a malformed line.
+            Throwable c = e.getCause();
+            if (c instanceof IOException) {
+                throw (IOException) c;
+            }
+            if (c instanceof RuntimeException) {
+                throw (RuntimeException) c;
+            }
+            if (c instanceof Error) {
+                throw (Error) c;
+            }
+            throw new IOException(c);
+        } finally {
+            reader.interrupt(); //may wait for the full queue.
+            workers.shutdownNow();
+        }
+    }
+    
+    /**
+     * Add one site to comStore, in input order.
+     * In streaming mode, genes completed before this site are checked first,
+     * and sites without gene annotation are skipped.
+     * @param r
+     * @throws IOException 
+     */
+    private void addComRow(ComRow r) throws IOException{
+        if (r.genes != null) { //gene intervals, new sites get keys here in input order.
+            r.key = variantKeys.add(r.contig, r.pos, r.ref, r.alt);
+        }
+        if (!sortedInput) {
+            int old = variantIndexMap.put(r.key, comStore.add(r.key, r.pos, r.onXY, r.packed, r.fams, r.genos, 0));
+            if (old < 0) {
+                addToGenes(r);
+            }
+            return;
+        }
+        
+        checkGenes(geneEnds.advance(r.contig, r.pos));
+        int nGenes = r.genes != null ? r.genes.length : variantGeneCount.get(r.key);
+        if (nGenes == 0) {
+            return;
+        }
+        int old = variantIndexMap.put(r.key, comStore.add(r.key, r.pos, r.onXY, r.packed, r.fams, r.genos, nGenes));
+        if (old >= 0) { //duplicated site, only use the last one.
+            comStore.release(old);
+        }else{
+            addToGenes(r);
+        }
+    }
+    
+    /**
+     * Add a site to the variant list of its genes, only for gene intervals.
+     * @param r
+     */
+    private void addToGenes(ComRow r){
+        if (r.genes == null) {
+            return;
+        }
+        for (int g : r.genes) {
+            geneList(geneIntervals.geneNames.get(g)).add(r.key);
+        }
+    }
+	
+	/**
+	 * Check if any body having alt. allele.
+	 * @param names
+	 * @param genotypes
+	 * @return
+	 */
+//	private static boolean anyAltAllele(List<String> names, String[] genotypes) {
+//		for (String string : names) {
+//			String geno = genotypes[nameIndexMap.get(string)];
+//			if(geno.charAt(0) != '.' && (geno.charAt(0) == '1' || geno.charAt(2) == '1'))
+//				return true;
+//		}
+//		
+//		return false; //all missing also return false.
+//	}
+	
+	/**
+	 * Check if all member having alt. allele,(genotype 11 or 01).
+         * return false if all member are missing.
+	 * @param mask members of a family.
+	 * @param g
+	 * @return
+	 */
+	static boolean allAltAlleleAllMissingFalse(SampleMask mask, GenotypeBits g){
+		long any = 0;
+		for (int k = 0; k < mask.words.length; k++) {
+			int w = mask.words[k];
+			long nm = g.nonMissing[w] & mask.bits[k];
+			//check non-missing individual, if somebody without alt. allele, 00 or 0|.
+			if ((nm & ~g.alt[w]) != 0) {
+				return false;
+			}
+			any |= nm;
+		}
+		
+		return any != 0; //all missing return false.
+	}
+    
+    /**
+     * Estimate the allele sharing rate.
+     * Only use families with more than one non-missing member.
+     * Remove family if any individual with alt-homo genotype. hard to estimate the rate.
+     * 
+     * @param mask
+     * @param g
+     * @return [number of individual with het genotype, total number of individuals in a family.]
+     */
+    static long [] estimateShareRate(SampleMask mask, GenotypeBits g){
+        long[] re = {-1,-1};
+        int nonMissing = 0;
+        int het = 0;
+        for (int k = 0; k < mask.words.length; k++) {
+            int w = mask.words[k];
+            long nm = g.nonMissing[w] & mask.bits[k];
+            if ((g.altHom[w] & mask.bits[k]) != 0) { //any alt-homo.
+                return re;
+            }
+            nonMissing += Long.bitCount(nm);
+            het += Long.bitCount(nm & ~g.ref[w]);
+        }
+		
+		if (nonMissing <= 1) { //all missing or only 1 individual.
+			return re;
+		}
+        
+        re[0] = het; // number of individual with het genotype.
+        re[1] = nonMissing;
+        return re;
+    }
+	
+	/**
+	 * Count the number of nonmissing individuals.
+	 * @param mask
+	 * @param g
+	 * @return
+	 */
+	private static long nonMissingCount(SampleMask mask, GenotypeBits g) {
+		long n = 0;
+		for (int k = 0; k < mask.words.length; k++) {
+			n += Long.bitCount(g.nonMissing[mask.words[k]] & mask.bits[k]);
+		}
+		return n;
+	}
+	
+	/**
+	 * Check if all individuals in a family are missing.
+	 * @param mask
+	 * @param g
+	 * @return
+	 */
+	private static boolean allMissing(SampleMask mask, GenotypeBits g){
+		for (int k = 0; k < mask.words.length; k++) {
+			if ((g.nonMissing[mask.words[k]] & mask.bits[k]) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+        
+        /**
+         * Check whether any individual from 'mask' has refHomo[11] genotype.
+         * @param mask
+         * @param g
+         * @return true if 
+         */
+    static boolean hasRefHomo(SampleMask mask, GenotypeBits g){
+            for (int k = 0; k < mask.words.length; k++) {
+                if ((g.altHom[mask.words[k]] & mask.bits[k]) != 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        /**
+         * Check whether all individuals carrying altHomo[11] genotype.
+         * ** if all individuals are missing, return false.
+         * @param mask
+         * @param g
          * @return 
          */
-        private static boolean allRefHomoAllMissingTrue(List<String> names, String[] genotypes){
-//            for(String s : names){
-//                System.out.println(genotypes[nameIndexMap.get(s)]);
-//            }
-            
-            String[] nonMissing = nonMissingNames(names, genotypes);
-            if(nonMissing.length == 0){
-                return true;
+        static boolean allAltHomoAllMissingFalse(SampleMask mask, GenotypeBits g){
+            long any = 0;
+            for (int k = 0; k < mask.words.length; k++) {
+                int w = mask.words[k];
+                long nm = g.nonMissing[w] & mask.bits[k];
+                if ((nm & ~g.altHom[w]) != 0) {
+                    return false;
+                }
+                any |= nm;
             }
-            
-            long cc =  Arrays.stream(nonMissing)
-              .filter(s-> genotypes[nameIndexMap.get(s)].charAt(0) == '0'
-                         && genotypes[nameIndexMap.get(s)].charAt(2) == '0'
-              ).count();
-            
-            if(cc == nonMissing.length){
-                return true;
-            }else{
-                return false;
+            return any != 0;
+        }
+        
+         /**
+         * Check whether all individuals carrying refHomo genotype.
+         * ** 1. if all individuals are missing, return true.
+         * ** 2. if all individuals are refHomo (00) return true.
+         * @param mask
+         * @param g
+         * @return 
+         */
+        static boolean allRefHomoAllMissingTrue(SampleMask mask, GenotypeBits g){
+            for (int k = 0; k < mask.words.length; k++) {
+                int w = mask.words[k];
+                if ((g.nonMissing[w] & ~g.ref[w] & mask.bits[k]) != 0) {
+                    return false;
+                }
             }
+            return true;
         }
         
         /**
-         * Get an individual's genotype and coverage.
-         * @param name
+         * Genotype and coverage of a whole candidate family, 
+         * (famName[case1:geno;case2:geno];ctrl1:geno;ctrl2:geno).
+         * Filled in the family template, genotype and coverage (GT:DP) bytes are 
+         * copied from the line, DP is found by the FORMAT column, GT only if no DP.
+         * Read from the genotype cache for sites of -cache.
+         * @param f index of case family.
          * @param genotypes
-         * @return 
+         * @param fmt FORMAT of this line.
+         * @param out
          */
-        private static String getGenoAndCov(String name, String[] genotypes){
-            String[] ss = genotypes[nameIndexMap.get(name)].split(":");
-            if(ss.length >= 2){
-                return ss[0] +":" + ss[1];
-            }else{
-                return ss[0];
+        private void appendFamilyGenotype(int f, VcfRecord genotypes, FormatFields fmt, ByteOutput out){
+            int[] cols = famIndex.memberCols[f];
+            byte[][] template = famIndex.templates[f];
+            for (int k = 0; k < cols.length; k++) {
+                int c = cols[k];
+                out.append(template[k]);
+                if (genotypes.cache != null) {
+                    genotypes.cache.appendGenotype(genotypes.site, c - ColStart, out);
+                    continue;
+                }
+                int b =fmt.gt > 0 ? FormatFields.subFieldStart(genotypes, c, fmt.gt) : -1;
+                if (b < 0) {
+                    b = genotypes.start[c];
+                }
+                out.append(genotypes.buf, b, FormatFields.subFieldEnd(genotypes, c, b));
+                b = fmt.dp >= 0 ? FormatFields.subFieldStart(genotypes, c, fmt.dp) : -1;
+                if (b >= 0) {
+                    out.append(':').append(genotypes.buf, b, FormatFields.subFieldEnd(genotypes, c, b));
+                }
+            }
+            out.append(template[cols.length]);
+        }
+        
+        private String familyGenotype(int f, VcfRecord genotypes){
+            ByteOutput out = new ByteOutput(256);
+            appendFamilyGenotype(f, genotypes, formatFields.get(), out);
+            return out.toString();
+        }
+        
+        /**
+         * Output one line for dominant or recessive model, only after the candidate 
+         * families were counted and the site is kept.
+         * chr pos ref alt #candidateFamilies #averageSize #Genotypes
+         * @param rec
+         * @param cands candidate families.
+         * @param cfCount
+         * @param out 
+         */
+        private void appendCandidates(VcfRecord rec, int[] cands, int cfCount, ByteOutput out){
+            int total = 0; //total individuals in candidate family, including unaffected.
+            for (int k = 0; k < cfCount; k++) {
+                total += famIndex.memberCols[cands[k]].length;
+            }
+            for (int c : OUTPUT_COLS) {
+                out.append(rec.buf, rec.start[c], rec.end[c]).append('\t');
+            }
+            out.append(cfCount).append('\t');
+            out.append(formater.get().format(total * 1.0 / cfCount)).append('\t');
+            FormatFields fmt = formatFields.get();
+            for (int k = 0; k < cfCount; k++) {
+                if (k > 0) {
+                    out.append(',');
+                }
+                appendFamilyGenotype(cands[k], rec, fmt, out);
             }
-           
+            out.append('\n');
         }
 	
 	/**
-	 * Determine and output one line.
+	 * Process one header line, index individuals by the #CHROM line.
 	 * @param line
-	 * @param writer
+	 * @return true if this is the #CHROM line.
+	 * @throws IOException if individuals do not match the ped file.
 	 */
-	private static void processOne(String line) {
+	private boolean processHeader(String line) throws IOException {
 		
-            if(isData == false){
                     if (line.startsWith("#CHROM")) {
                             isData = true;
                             nameArr = line.split("\\s+");
+                            List<String> errors = sampleErrors(nameArr);
+                            if (!errors.isEmpty()) {
+                                    errors.forEach(System.err::println);
+                                    throw new IOException("ERROR: " + errors.size() + " errors of individuals in the vcf header, " + errors.get(0));
+                            }
                             //map idname to index
-                            boolean ee = false;
                             for (int j = ColStart; j < nameArr.length; j++) {
-                                    if (nameIndexMap.keySet().contains(nameArr[j])) { //check duplicate.
-                                            ee = true;
-                                            System.err.println("Error: Duplicate individuals were detected in VCF head. Name: " + nameArr[j]);
-                                    }else{
-                                            nameIndexMap.put(nameArr[j], j);
-                                    }
-
-                                    if(! pedIdSet.contains(nameArr[j])){
-                                            ee = true;
-                                            System.err.println("Error: This individual wasn't decleared in ped file or missing phenotype: " + nameArr[j]);
-                                    }
+                                    nameIndexMap.put(nameArr[j], j);
                             }
-                            //Check whether all individuals in pedIDSet are indexed.
-                            for (String nameInPed : pedIdSet) {
-                                    if (! nameIndexMap.containsKey(nameInPed)) {
-                                            ee = true;
-                                            System.err.println("Error: Individual decleared in ped file but not in VCF file: " + nameInPed);
-                                    }
-                            }
-
-                            if (ee) {
-                                    System.exit(-1);
+                            
+                            famIndex = new FamilyIndex(caseFamilies, controlFamilies, ctrlNames, genderMap, nameIndexMap, ColStart, nameArr.length);
+                            if (hasModel("com")) {
+                                comStore = new PackedGenotypeStore(famIndex.nSamples, memBudget);
                             }
+                            return true;
+                    }
+                    return false;
+	}
+    
+    /**
+     * Check the individuals of the #CHROM line against the ped file.
+     * @param names fields of the #CHROM line.
+     * @return error messages, empty if the individuals match.
+     */
+    private List<String> sampleErrors(String[] names){
+        List<String> errors = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (int j = ColStart; j < names.length; j++) {
+            if (!seen.add(names[j])) { //check duplicate.
+                errors.add("Error: Duplicate individuals were detected in VCF head. Name: " + names[j]);
+            }
+            if(! pedIdSet.contains(names[j])){
+                errors.add("Error: This individual wasn't decleared in ped file or missing phenotype: " + names[j]);
+            }
+        }
+        //Check whether all individuals in pedIDSet are indexed.
+        for (String nameInPed : pedIdSet) {
+            if (! seen.contains(nameInPed)) {
+                errors.add("Error: Individual decleared in ped file but not in VCF file: " + nameInPed);
+            }
+        }
+        return errors;
+    }
+    
+    /**
+     * Titles of all models, the first batch of outputs.
+     * @return
+     */
+    private Batch titleBatch(){
+        Batch b = new Batch(null);
+        for (int m = 0; m < models.length; m++) {
+            b.out[m].append(modelTitle(models[m])).append('\n');
+        }
+        return b;
+    }
 
-                            //output title
-                            if(imodel.equalsIgnoreCase("dom") || imodel.equalsIgnoreCase("rec")){
-                                StringJoiner sJoiner = new StringJoiner("\t");
-                                sJoiner.add(nameArr[0]);
-                                sJoiner.add(nameArr[1]);
-                                sJoiner.add(nameArr[3]);
-                                sJoiner.add(nameArr[4]);
+    /**
+     * Output title of a model, after reading the #CHROM line.
+     * @param model
+     * @return 
+     */
+    private String modelTitle(String model){
+        if(model.equals("dom") || model.equals("rec")){
+            StringJoiner sJoiner = new StringJoiner("\t");
+            sJoiner.add(nameArr[0]);
+            sJoiner.add(nameArr[1]);
+            sJoiner.add(nameArr[3]);
+            sJoiner.add(nameArr[4]);
 
-                                sJoiner.add("#CandidateFamilies");
-                                sJoiner.add("#AverageFamilySize");
-                                sJoiner.add("#CandidatesGenotype");
-                                System.out.println(sJoiner.toString());
-                            }else if (imodel.equalsIgnoreCase("com")) {
-                           
-                                StringJoiner sJoiner = new StringJoiner("\t");
-                                sJoiner.add("GeneName");
-                                sJoiner.add("FamilyName");
-                                sJoiner.add("VariantID");
-                                sJoiner.add("FamilyGenotype");
-                                System.out.println(sJoiner.toString());
-                            }else if (imodel.equalsIgnoreCase("eshare")) {
-                                StringJoiner sJoiner = new StringJoiner("\t");
-                                sJoiner.add(nameArr[0]);
-                                sJoiner.add(nameArr[1]);
-                                sJoiner.add(nameArr[3]);
-                                sJoiner.add(nameArr[4]);
-                                sJoiner.add("#Carrier");
-                                sJoiner.add("#Total");
-                                sJoiner.add("SharingRate");
-                                System.out.println(sJoiner.toString());
+            sJoiner.add("#CandidateFamilies");
+            sJoiner.add("#AverageFamilySize");
+            sJoiner.add("#CandidatesGenotype");
+            return sJoiner.toString();
+        }else if (model.equals("com")) {
+       
+            StringJoiner sJoiner = new StringJoiner("\t");
+            sJoiner.add("GeneName");
+            sJoiner.add("FamilyName");
+            sJoiner.add("VariantID");
+            sJoiner.add("FamilyGenotype");
+            return sJoiner.toString();
+        }else if (model.equals("eshare")) {
+            StringJoiner sJoiner = new StringJoiner("\t");
+            sJoiner.add(nameArr[0]);
+            sJoiner.add(nameArr[1]);
+            sJoiner.add(nameArr[3]);
+            sJoiner.add(nameArr[4]);
+            sJoiner.add("#Carrier");
+            sJoiner.add("#Total");
+            sJoiner.add("SharingRate");
+            return sJoiner.toString();
+        }
+        return null;
+    }
+    
+    /**
+     * Determine and output one batch of data lines, run by worker threads.
+     * @param batch
+     * @return 
+     */
+    private Batch processBatch(Batch batch) {
+        byte[] buf = batch.block.buf;
+        VcfRecord ss = new VcfRecord();
+        GenotypeBits g = new GenotypeBits(famIndex.nSamples);
+        ControlScreen screen = controlsFirst() ? controlScreen.get() : null;
+        FormatFields fmt = formatFields.get();
+        VcfRecord split = new VcfRecord(); //one alt. allele of a multi-allelic line.
+        ByteOutput splitLine = new ByteOutput(1 << 12);
+        Metrics.Local mt = metrics == null ? null : metrics.local.get();
+        int lastFrom = -1, lastTo = -1;
+        for (int from = 0, to; from < batch.block.len; from = to + 1) {
+                    long t0 = mt == null ? 0 : System.nanoTime();
+                    to = from;
+                    while (to < batch.block.len && buf[to] != '\n') {
+                        to++;
+                    }
+                    ss.set(buf, from, to);
+                    if (ss.nCols == 0) { //empty line.
+                        continue;
+                    }
+                    lastFrom = from;
+                    lastTo = to;
+                    if (mt != null) {
+                        mt.lines++;
+                        mt.bytes += to - from + 1;
+                        mt.lap(Metrics.PARSE, t0);
+                    }
+                    if (splitAlleles && ss.nAlts() > 1) { //one line for each alt. allele.
+                        int nAlts = ss.nAlts();
+                        fmt.parse(ss); //GT index, the same FORMAT for the split lines.
+                        for (int k = 1; k <= nAlts; k++) {
+                            splitLine.setLength(0);
+                            ss.splitAllele(k, ColStart, fmt.gt, splitLine);
+                            split.set(splitLine.buffer(), 0, splitLine.length());
+                            processLine(split, g, fmt, screen, batch, mt);
+                        }
+                    }else{
+                        processLine(ss, g, fmt, screen, batch, mt);
+                    }
+        }
+        
+        if (sortedInput && hasModel("com") && lastFrom >= 0) {
+            ss.set(buf, lastFrom, lastTo);
+            batch.lastContig = ss.field(0);
+            batch.lastPos = Integer.parseInt(ss.field(1));
+        }
+        return batch;
+	}
+    
+    /**
+     * Check one tokenized line by all models.
+     * @param ss
+     * @param g
+     * @param fmt FORMAT fields of this worker, set to this line.
+     * @param screen null if lines are not rejected by controls first.
+     * @param batch 
+     * @param mt null if no metrics.
+     */
+    private void processLine(VcfRecord ss, GenotypeBits g, FormatFields fmt, ControlScreen screen, Batch batch, Metrics.Local mt){
+                    long t = mt == null ? 0 : System.nanoTime();
+                    fmt.parse(ss);
+                    if (screen != null) {
+                        boolean rejected = screen.rejects(ss, fmt); //rejected by controls, cases are not decoded.
+                        if (mt != null) {
+                            t = mt.lap(Metrics.CONTROL, t);
+                            if (rejected) {
+                                mt.counts[Metrics.SCREEN_REJECTED]++;
                             }
+                        }
+                        if (rejected) {
+                            return;
+                        }
+                    }
+                    g.decode(ss, ColStart, fmt);
+                    if (mt != null) {
+                        mt.lap(Metrics.PARSE, t);
                     }
+                    checkModels(ss, g, batch, mt);
+    }
 
-            }else {
-                    String[] ss = line.split("\\s+");
+    /**
+     * Check sites of the genotype cache, [siteFrom, siteTo) of the batch, run by worker threads.
+     * @param batch
+     * @return
+     */
+    private Batch processCacheBatch(Batch batch) {
+        VcfRecord ss = new VcfRecord();
+        GenotypeBits g = new GenotypeBits(famIndex.nSamples);
+        Metrics.Local mt = metrics == null ? null : metrics.local.get();
+        for (int i = batch.siteFrom; i < batch.siteTo; i++) {
+            long t = mt == null ? 0 : System.nanoTime();
+            genotypeCache.site(i, ss);
+            genotypeCache.decode(i, g, minGQ, minDP);
+            if (mt != null) {
+                mt.lines++;
+                mt.bytes += genotypeCache.siteBytes();
+                mt.lap(Metrics.PARSE, t);
+            }
+            checkModels(ss, g, batch, mt);
+        }
+        if (sortedInput && hasModel("com") && batch.siteTo > batch.siteFrom) {
+            genotypeCache.site(batch.siteTo - 1, ss);
+            batch.lastContig = ss.field(0);
+            batch.lastPos = Integer.parseInt(ss.field(1));
+        }
+        return batch;
+    }
 
-                    switch (imodel) {
-                    case "dom":
-                            dominantModel(ss);
-                            break;
+    /**
+     * Check one decoded site by all models.
+     * @param ss
+     * @param g
+     * @param batch
+     * @param mt null if no metrics.
+     */
+    private void checkModels(VcfRecord ss, GenotypeBits g, Batch batch, Metrics.Local mt){
+                    //all models share the decoded line.
+                    for (int m = 0; m < models.length; m++) {
+                        String re = null;
+                        switch (models[m]) {
+                        case "dom":
+                                dominantModel(ss, g, batch.out[m], mt);
+                                break;
 
-                    case "rec":
-                            recessiveModel(ss);
-                            //System.err.println("Recessive model has not been implemented!");
-                            //System.exit(-1);
-                            break;
-                    case "com":
-                            tempList.add(ss);
+                        case "rec":
+                                recessiveModel(ss, g, batch.out[m], mt);
+                                break;
+                        case "com":
+                                ComRow row = comRow(ss, g, mt);
+                                if (row != null) {
+                                    batch.comRows.add(row);
+                                }
+                                break;
+                        case "eshare":
+                                long t = mt == null ? 0 : System.nanoTime();
+                                re = eshare(ss, g);
+                                if (mt != null) {
+                                    mt.lap(Metrics.FAMILY, t);
+                                    if (re != null) {
+                                        mt.counts[Metrics.ESHARE_KEPT]++;
+                                    }
+                                }
+                                break;
+                        default:
+                                break;
+                        }
                         
-                            //System.err.println("Compound heterozygous model has not been implemented!");
-                            //System.exit(-1);
-                            break;
-                    case "eshare":
-                            eshare(ss);
-                            break;
-                    default:
-                            break;
+                        if (re != null) {
+                            batch.out[m].append(re).append('\n');
+                        }
                     }
-
-            }
-		
-	}
+    }
         
         /**
          * Filter by recessive model, 100% penetrate. 
          * 1. all unaffected individual carrying 00/01 [refHom or Hetero.] genotype.
          * 2. In a candidate family, all affected individual carry [11]refHomo genotype.
          * @param oneLineArr 
+         * @param out output line is appended, nothing if this site was filtered out.
+         * @param mt null if no metrics.
          */
-        private static void recessiveModel(String[] oneLineArr){
+        void recessiveModel(VcfRecord oneLineArr, GenotypeBits g, ByteOutput out, Metrics.Local mt){
 //            System.err.println(ctrlNames);
 //            System.err.println(hasRefHomo(ctrlNames, oneLineArr));
-            if (hasRefHomo(ctrlNames, oneLineArr)) {
+            long t = mt == null ? 0 : System.nanoTime();
+            boolean ctrlRefHomo = hasRefHomo(famIndex.allCtrlMask, g);
+            if (mt != null) {
+                t = mt.lap(Metrics.CONTROL, t);
+            }
+            if (ctrlRefHomo) {
                 //has refHomo[11] in control, assume 100% penetrate, skip this site.
-                //return;
+                if (mt != null) {
+                    mt.counts[Metrics.REC_CONTROL]++;
+                }
+                return;
             }else{
                 //check candiates families. all unaffectd individual at this site carring non-refHomo genotype [00/01].
-                //candidate family genotype, and total of individal in these families, including unaffected.
-                int total = 0;
                 int cfCount = 0; //candiate family count.
-                //List<String> candidateFamilies = new LinkedList<String>();
+                int[] cands = new int[8];
                 
-                StringJoiner cfGeno = new StringJoiner(","); //genotype and coverage info. for candidate family.
-                
-                for (String cfname :  caseFamilies.keySet()) {
-                    if(allAltHomoAllMissingFalse(caseFamilies.get(cfname), oneLineArr)){ //candidate family.
-                        
-                        //candidateFamilies.add(cfname);
-                        cfCount += 1;
-                        total += caseFamilies.get(cfname).size();
-                        //affected geno in a family.
-                        StringBuilder sb = new StringBuilder();
-                        sb.append("("+cfname+"[");
-                        for(String n: caseFamilies.get(cfname)){
-                            sb.append(n).append(":");
-                            sb.append(getGenoAndCov(n, oneLineArr));
-                            sb.append(";"); //separate individual by ';'
+                for (int f = 0; f < famIndex.famNames.length; f++) {
+                    if(allAltHomoAllMissingFalse(famIndex.caseMasks[f], g)){ //candidate family.
+                        if (cfCount == cands.length) {
+                            cands = Arrays.copyOf(cands, cfCount * 2);
                         }
-                        sb.setLength(sb.length()-1); //remove last ",".
-                        sb.append("]");
-                        //unaffected geno in a family.
-                        if(controlFamilies.containsKey(cfname)){
-                            total += controlFamilies.get(cfname).size();
-                            for(String n: controlFamilies.get(cfname)){
-                                sb.append(";"); ////separate individual by ';'
-                                sb.append(n).append(":");
-                                sb.append(getGenoAndCov(n, oneLineArr));
-                            }
-                        }
-                        sb.append(")");
-                        cfGeno.add(sb.toString());
+                        cands[cfCount++] = f;
+                    }
+                }
+                if (mt != null) {
+                    t = mt.lap(Metrics.FAMILY, t);
+                    mt.counts[cfCount <= 0 ? Metrics.REC_NO_FAMILY : Metrics.REC_KEPT]++;
+                    if (cfCount > 0) {
+                        mt.families(Metrics.REC, cfCount);
                     }
                 }
                 
@@ -669,20 +1992,10 @@ public class ExomeModelFilterV2 {
                 }
                
                 //output final results.
-                //chr pos ref alt #candidateFamilies #averageSize #Genotypes
-                StringJoiner sj = new StringJoiner("\t");
-                sj.add(oneLineArr[0]);
-                sj.add(oneLineArr[1]);
-                sj.add(oneLineArr[3]);
-                sj.add(oneLineArr[4]);
-                
-                sj.add(Integer.toString(cfCount));
-                sj.add(formater.format(total * 1.0 / cfCount));
-                
-                sj.add(cfGeno.toString());
-            
-                //output final results.
-                System.out.println(sj.toString());
+                appendCandidates(oneLineArr, cands, cfCount, out);
+                if (mt != null) {
+                    mt.lap(Metrics.FORMAT, t);
+                }
             }
         }
         
@@ -692,273 +2005,388 @@ public class ExomeModelFilterV2 {
          * 1. unaffected should be 00.
          * 2. In a candidate family affected should be 01 or 11.
          * @param oneLineArr 
+         * @param out output line is appended, nothing if this site was filtered out.
+         * @param mt null if no metrics.
          */
-        private static void dominantModel(String[] oneLineArr){
+        void dominantModel(VcfRecord oneLineArr, GenotypeBits g, ByteOutput out, Metrics.Local mt){
 //            System.out.println("exome.ExomeModelFilterV2.dominantModel()");
-            String[] ss = oneLineArr;
 //            System.out.println(ctrlNames);
 //            System.out.println("allRefHomoAllMissingTrue(ctrlNames, ss)" + allRefHomoAllMissingTrue(ctrlNames, ss));
-            if(allRefHomoAllMissingTrue(ctrlNames, ss) == false){
+            long t = mt == null ? 0 : System.nanoTime();
+            boolean ctrlRefHomo = allRefHomoAllMissingTrue(famIndex.allCtrlMask, g);
+            if (mt != null) {
+                t = mt.lap(Metrics.CONTROL, t);
+            }
+            if(ctrlRefHomo == false){
                 // pass this variants, unmet conditon 1.0.
+                if (mt != null) {
+                    mt.counts[Metrics.DOM_CONTROL]++;
+                }
+                return;
             }else{// all ref homo[00] or all missing.
                 //check candiates families. all unaffectd individual at this site carring 00.
-                //candidate family genotype, and total of individal in these families, including unaffected.
-                int total = 0;   //total individuals in candidate family, including unaffected.
+                //only count candidate families here, formatting after the site is kept,
+                //and the scan stops once over MaxCandiateFamilies.
                 int cfCount = 0; //candiate family count.
-                //List<String> candidateFamilies = new LinkedList<String>();
+                int[] cands = new int[8];
+                boolean onXY = onSexChromosome(oneLineArr);
                 
-                StringJoiner cfGeno = new StringJoiner(","); //genotype and coverage info. for candidate family.
-                
-                for (String cfname :  caseFamilies.keySet()) {
+                for (int f = 0; f < famIndex.famNames.length; f++) {
                     //Check if all member having alt. allele,(genotype 11 or 01).
-                    if(allAltAlleleAllMissingFalse(caseFamilies.get(cfname), oneLineArr)
+                    if(allAltAlleleAllMissingFalse(famIndex.caseMasks[f], g)
                             
-                            && checkAltHomo4Dom(caseFamilies.get(cfname), oneLineArr)
+                            && checkAltHomo4Dom(famIndex.caseMasks[f], g, onXY)
                             ){ //candidate family.
-                        
-                        //candidateFamilies.add(cfname);
-                        cfCount += 1;
-                        total += caseFamilies.get(cfname).size();
-                        //affected geno in a family.
-                        StringBuilder sb = new StringBuilder();
-                        sb.append("("+cfname+"[");
-                        for(String n: caseFamilies.get(cfname)){
-                            sb.append(n).append(":");
-                            sb.append(getGenoAndCov(n, oneLineArr));
-                            sb.append(";"); //separate individual by ';'
-                        }
-                        sb.setLength(sb.length()-1); //remove last ",".
-                        sb.append("]");
-                        //unaffected geno in a family.
-                        if(controlFamilies.containsKey(cfname)){
-                            total += controlFamilies.get(cfname).size();
-                            for(String n: controlFamilies.get(cfname)){
-                                sb.append(";"); //separate individual by ';'
-                                sb.append(n).append(":");
-                                sb.append(getGenoAndCov(n, oneLineArr));
+                        if (cfCount >= MaxCandiateFamilies) {
+                            //too many candidate families, stop at the first one over the limit.
+                            if (mt != null) {
+                                mt.lap(Metrics.FAMILY, t);
+                                mt.counts[Metrics.DOM_MAX_FAMILIES]++;
+                                mt.families(Metrics.DOM, -1);
                             }
+                            return;
+                        }
+                        if (cfCount == cands.length) {
+                            cands = Arrays.copyOf(cands, cfCount * 2);
                         }
-                        sb.append(")");
-                        cfGeno.add(sb.toString());
+                        cands[cfCount++] = f;
+                    }
+                }
+                if (mt != null) {
+                    t = mt.lap(Metrics.FAMILY, t);
+                    mt.counts[cfCount <= 0 ? Metrics.DOM_NO_FAMILY : Metrics.DOM_KEPT]++;
+                    if (cfCount > 0) {
+                        mt.families(Metrics.DOM, cfCount);
                     }
                 }
                 
-                //skip if no candidate family, OR too many candidate families.
-                if(cfCount <= 0 || cfCount > MaxCandiateFamilies){
+                //skip if no candidate family.
+                if(cfCount <= 0){
                     return;
                 }
                
                 //output final results.
-                //chr pos ref alt #candidateFamilies #averageSize #Genotypes
-                StringJoiner sj = new StringJoiner("\t");
-                sj.add(oneLineArr[0]);
-                sj.add(oneLineArr[1]);
-                sj.add(oneLineArr[3]);
-                sj.add(oneLineArr[4]);
-                
-                sj.add(Integer.toString(cfCount));
-                sj.add(formater.format(total * 1.0 / cfCount));
-                
-                sj.add(cfGeno.toString());
-            
-                //output final results.
-                System.out.println(sj.toString());
+                appendCandidates(oneLineArr, cands, cfCount, out);
+                if (mt != null) {
+                    mt.lap(Metrics.FORMAT, t);
+                }
             }
-            
-            
         }
         
         /**
          * Filter by compound heterozyous model, since version 2.5.
+         * @throws IOException 
          */
-        private static void compoundHeterozygousModel(){
-            comDataMatrix = new String[tempList.size()][];
-            Map<String,Integer> variantIndexMap = new HashMap<>();
-            int t_index = 0;
-            for (Iterator<String[]> iterator = tempList.iterator(); iterator.hasNext();) {
-                String[] ss = iterator.next();
-//                StringJoiner sj = new StringJoiner("-");
-//                sj.add(ss[0]);
-//                sj.add(ss[1]);
-//                sj.add(ss[3]);
-//                sj.add(ss[4]);
-                variantIndexMap.put(getVariantkey(ss), t_index);
-                comDataMatrix[t_index++] =ss;
-            }
-            tempList.clear();
+        private void compoundHeterozygousModel() throws IOException{
+            if (sortedInput) { //remaining genes in streaming mode.
+                checkGenes(geneEnds.finish());
+                return;
+            }
             
             //System.out.println(geneAnnoMap.toString());
             
-            //checking compound hetero model.
-            for (Map.Entry<String, List<String>> entry : geneAnnoMap.entrySet()) { // Iterate by gene.
-                //variant positions for a gene.
-                String gene = entry.getKey();
-                List<String> value = entry.getValue();
-                int[] vIndex =  value.stream()
-                           .filter(s -> variantIndexMap.get(s) != null) //varinat in annotation but not in vcf file.
-                           .mapToInt(s->{
-//                               if (variantIndexMap.get(s) == null) {
-//                                   System.err.println("ERROR: Can not find this entry in vcf file, please check vcf and annotation file: " + s);
-//                                   System.exit(-1);
-//                                }
-                               return variantIndexMap.get(s);})
+            //checking compound hetero model, genes in name order for a stable output.
+            String[] genes = geneAnnoMap.keySet().toArray(new String[0]);
+            Arrays.sort(genes);
+            int[][] vIndex = new int[genes.length][];
+            for (int i = 0; i < genes.length; i++) {
+                vIndex[i] = geneVariants(geneAnnoMap.get(genes[i]).toArray());
+            }
+            checkGenes(genes, vIndex);
+        }
+        
+        /**
+         * Check completed genes in streaming mode, and release their variants.
+         * @param genes
+         * @throws IOException 
+         */
+        private void checkGenes(List<String> genes) throws IOException{
+            if (genes.isEmpty()) {
+                return;
+            }
+            String[] gs = genes.toArray(new String[0]);
+            int[][] vIndex = new int[gs.length][];
+            for (int i = 0; i < gs.length; i++) {
+                LongList l = geneAnnoMap.remove(gs[i]);
+                vIndex[i] = l == null ? new int[0] : geneVariants(l.toArray()); //no site in gene intervals.
+            }
+            checkGenes(gs, vIndex);
+            for (int[] vs : vIndex) {
+                for (int v : vs) {
+                    if (comStore.done(v) == 0) {
+                        variantIndexMap.remove(comStore.key(v));
+                    }
+                }
+            }
+            comStore.releaseDone();
+        }
+        
+        /**
+         * Check genes in parallel on the common fork join pool (work stealing),
+         * and output in the order of genes. Genes are checked in rounds to bound 
+         * the output kept in memory.
+         * @param genes
+         * @param vIndex index in comStore for the variants of each gene.
+         * @throws IOException 
+         */
+        private void checkGenes(String[] genes, int[][] vIndex) throws IOException{
+            if (replaying) { //output before the checkpoint.
+                return;
+            }
+            Metrics.Local mt= metrics == null ? null : metrics.local.get();
+            long t = mt == null ? 0 : System.nanoTime();
+            OutputStream w = writers[modelIndex("com")];
+            for (int from = 0; from < genes.length; from += GENES_PER_ROUND) {
+                String[] out = IntStream.range(from, Math.min(genes.length, from + GENES_PER_ROUND))
+                        .parallel()
+                        .mapToObj(i -> checkGene(genes[i], vIndex[i]))
+                        .toArray(String[]::new);
+                for (String s : out) {
+                    w.write(s.getBytes(StandardCharsets.ISO_8859_1));
+                }
+            }
+            if (mt != null) {
+                mt.lap(Metrics.COM_CHECK, t);
+                mt.counts[Metrics.COM_GENES] += genes.length;
+            }
+        }
+        
+        /**
+         * Index in comStore for the variants of a gene.
+         * @param value variant keys of a gene.
+         * @return 
+         */
+        private int[] geneVariants(long[] value){
+                int[] vIndex =  Arrays.stream(value)
+                           .mapToInt(variantIndexMap::get)
+                           .filter(i -> i >= 0) //varinat in annotation but not in vcf file.
                            .toArray();
-                
+                return vIndex;
+        }
+        
+        /**
+         * Check compound hetero. model for one gene.
+         * Families of a gene with many sites are also checked in parallel.
+         * @param gene
+         * @param vIndex index in comStore for the variants of this gene.
+         * @return output lines of candidate families, in family order.
+         */
+        String checkGene(String gene, int[] vIndex){
                 //System.out.println(gene);
                 //System.out.println(Arrays.toString(vIndex));
                 
+                //decode genotypes once for all families.
+                GenotypeBits[] vBits = new GenotypeBits[vIndex.length];
+                for (int k = 0; k < vIndex.length; k++) {
+                    vBits[k] = new GenotypeBits(famIndex.nSamples);
+                    comStore.genotypes(vIndex[k], vBits[k]);
+                }
+                
                 //Iterate by families.
-                for (String caseFamily : caseFamilies.keySet()) {
-//                    int[] idIndex = caseFamilies.get(caseFamily).stream()
-//                                        .mapToInt(s -> nameIndexMap.get(s))
-//                                        .toArray();
-                    
-                    //checking for candidate sites.
-                    int[] passed = Arrays.stream(vIndex)
-                                    //share alt allele, 11/01
-                                    .filter(s -> allAltAlleleAllMissingFalse(caseFamilies.get(caseFamily), comDataMatrix[s]))
-                                    //remove 11 genotype, except male x|y as 11.
-                                    .filter(s -> checkAltHomo4Dom(caseFamilies.get(caseFamily), comDataMatrix[s]))
-                                    .toArray();
-                    //System.err.println("Fam: " +caseFamily);
-                    //System.err.println(Arrays.toString(passed));
-                    
-                    //checking for MNP sites.
-                    if (removeMNP && passed.length >= 2) {
-                        Set<Integer> mnps = new HashSet<>();
-                        long[] pos = Arrays.stream(passed)
-                                .mapToLong(s -> Integer.parseInt(comDataMatrix[s][1]))
+                IntStream fams = IntStream.range(0, famIndex.famNames.length);
+                if (vIndex.length >= PARALLEL_FAMILY_SITES) {
+                    fams = fams.parallel();
+                }
+                StringBuilder re = new StringBuilder();
+                fams.mapToObj(f -> checkFamily(gene, f, vIndex, vBits))
+                    .forEachOrdered(re::append);
+                return re.toString();
+        }
+        
+        /**
+         * Check compound hetero. model for one family in a gene.
+         * @param gene
+         * @param f family index.
+         * @param vIndex index in comStore for the variants of this gene.
+         * @param vBits decoded genotypes of vIndex.
+         * @return output lines, empty if not a candidate family.
+         */
+        private String checkFamily(String gene, int f, int[] vIndex, GenotypeBits[] vBits){
+                final SampleMask caseMask = famIndex.caseMasks[f];
+                
+                //checking for candidate sites.
+                int[] passed = IntStream.range(0, vIndex.length)
+                                //share alt allele, 11/01
+                                .filter(k -> allAltAlleleAllMissingFalse(caseMask, vBits[k]))
+                                //remove 11 genotype, except male x|y as 11.
+                                .filter(k -> checkAltHomo4Dom(caseMask, vBits[k], comStore.onXY(vIndex[k])))
+                                .map(k -> vIndex[k])
                                 .toArray();
-                        //checking for mnp
-                        for (int i = 0; i < pos.length; i++) {
-                            for (int j = i+1; j < pos.length; j++) {
-                                if (Math.abs(pos[i] - pos[j]) <= MNPlen ) {
-                                    mnps.add(i);
-                                    mnps.add(j);
-                                }
-                            }
-                        }
-                        //update passed
-                        int[] newpassed = new int[passed.length - mnps.size()];
-                        int temp_index = 0;
-                        for (int i = 0; i < passed.length; i++) {
-                            if (!mnps.contains(i)) {
-                                newpassed[temp_index++] = passed[i];
+                //System.err.println("Fam: " +caseFamily);
+                //System.err.println(Arrays.toString(passed));
+                
+                //checking for MNP sites.
+                if (removeMNP && passed.length >= 2) {
+                    Set<Integer> mnps = new HashSet<>();
+                    long[] pos = Arrays.stream(passed)
+                            .mapToLong(s -> comStore.pos(s))
+                            .toArray();
+                    //checking for mnp
+                    for (int i = 0; i < pos.length; i++) {
+                        for (int j = i+1; j < pos.length; j++) {
+                            if (Math.abs(pos[i] - pos[j]) <= MNPlen ) {
+                                mnps.add(i);
+                                mnps.add(j);
                             }
                         }
-                        passed = newpassed;
                     }
-                    
-                    //althomo genotype checking, at least one site althomo count is zero.
-                    if (altHomoChecking4CompundHet) {
-                        boolean skip = true;
-                        for (int i : passed) {
-                            if (variantAltHomoCountMap.get(getVariantkey(comDataMatrix[i])).equalsIgnoreCase("0")) {
-                                skip = false;
-                                break;
-                            }
+                    //update passed
+                    int[] newpassed = new int[passed.length - mnps.size()];
+                    int temp_index = 0;
+                    for (int i = 0; i < passed.length; i++) {
+                        if (!mnps.contains(i)) {
+                            newpassed[temp_index++] = passed[i];
                         }
-                        if (skip) {
-                            continue;
+                    }
+                    passed = newpassed;
+                }
+                
+                //althomo genotype checking, at least one site althomo count is zero.
+                if (altHomoChecking4CompundHet) {
+                    boolean skip = true;
+                    for (int i : passed) {
+                        if (variantAltHomoZero.get(comStore.key(i)) == 1) {
+                            skip = false;
+                            break;
                         }
                     }
+                    if (skip) {
+                        return "";
+                    }
+                }
+                
+                
+                StringBuilder re = new StringBuilder();
+                StringJoiner sj = new StringJoiner("\t");
+                //candidate gene.
+                if (passed.length >= 2) {
+                    sj.add(gene);
+                    sj.add(famIndex.famNames[f]);
                     
-                    
-                    StringJoiner sj = new StringJoiner("\t");
-                    //candidate gene.
-                    if (passed.length >= 2) {
-                        sj.add(gene);
-                        sj.add(caseFamily);
+                    //Iterate variant list.
+                    for (int i : passed) {
+                        StringJoiner out = new StringJoiner("\t");
+                        out.add(sj.toString());
+                        out.add(variantKeys.format(comStore.key(i)));
                         
-                        //Iterate variant list.
-                        for (int i : passed) {
-                            StringJoiner out = new StringJoiner("\t");
-                            out.add(sj.toString());
-                            out.add(getVariantkey(comDataMatrix[i]));
-                            
-                            //genotype infor for this family at this sites.
-                            StringBuilder sb = new StringBuilder();
-                            sb.append("("+caseFamily+"[");
-                            for(String n: caseFamilies.get(caseFamily)){
-                                sb.append(n).append(":");
-                                sb.append(getGenoAndCov(n, comDataMatrix[i]));
-                                sb.append(";"); //separate individual by ';'
-                            }
-                            sb.setLength(sb.length()-1); //remove last ",".
-                            sb.append("]");
-                            //unaffected geno in a family.
-                            if(controlFamilies.containsKey(caseFamily)){
-                                for(String n: controlFamilies.get(caseFamily)){
-                                    sb.append(";"); //separate individual by ';'
-                                    sb.append(n).append(":");
-                                    sb.append(getGenoAndCov(n, comDataMatrix[i]));
-                                }
-                            }
-                            sb.append(")");
-                            out.add(sb.toString());
-                            System.out.println(out.toString());
-                        }
+                        //genotype infor for this family at this sites.
+                        out.add(comStore.familyGenotype(i, f));
+                        re.append(out.toString()).append('\n');
                     }
                 }
-            }
+                return re.toString();
         }
         
         /**
-         * VCF variant key, chr-pos-ref-alt.
-         * @param ss
+         * Whether the site is on chromosome X or Y, out of the pseudo-autosomal regions if -build.
+         * Contigs are classified once by each worker (ContigClass).
+         * @param oneLineArr
          * @return 
          */
-        private static String getVariantkey(String[] ss){
-            StringJoiner sj = new StringJoiner("-");
-                sj.add(ss[0]);
-                sj.add(ss[1]);
-                sj.add(ss[3]);
-                sj.add(ss[4]);
-            return sj.toString();
+        private boolean onSexChromosome(VcfRecord oneLineArr){
+            return contigClass.get().onXY(oneLineArr);
         }
         
         /**
          * True if all non-altHomo. or altHomo on male X or Y. Otherwise false.
-         * @param names
-         * @param oneLineArr
+         * @param mask
+         * @param g
+         * @param onXY site on chromosome X or Y.
          * @return 
          */
-        private static boolean checkAltHomo4Dom(List<String> caseNames, String[] oneLineArr){
-            for (String name : caseNames) {
-                int index = nameIndexMap.get(name);
-                //skip missing
-                //if(oneLineArr[index].charAt(0) == '.' || genderMap.get(name).equalsIgnoreCase("0")){
-                if(oneLineArr[index].charAt(0) == '.'){
+        boolean checkAltHomo4Dom(SampleMask mask, GenotypeBits g, boolean onXY){
+            for (int k = 0; k < mask.words.length; k++) {
+                int w = mask.words[k];
+                long altHom = g.altHom[w] & mask.bits[k];
+                if (altHom == 0) {
                     continue;
                 }
-                
-                if (oneLineArr[index].charAt(0) != '0' && oneLineArr[index].charAt(2) != '0') { //alt homo.
-                    //alt homo not on X|Y chromosome.  return false.
-                    if(! (oneLineArr[0].substring(oneLineArr[0].length()-1, oneLineArr[0].length()).equalsIgnoreCase("x")
-                            || oneLineArr[0].substring(oneLineArr[0].length()-1, oneLineArr[0].length()).equalsIgnoreCase("y")
-                            )){
-                        return false;
+                //alt homo not on X|Y chromosome.  return false.
+                if(! onXY){
+                    return false;
+                }
+                //only permit male or gender missing, X|Y for alt-homo.
+                if ((altHom & ~famIndex.maleOrUnknown[w]) != 0) {
+                    return  false;
+                }
+            }
+            
+            return true;
+        }
+        
+        /**
+         * Families sharing the alt. allele at this site, for compound hetero. model.
+         * @param oneLineArr
+         * @param g
+         * @param mt null if no metrics.
+         * @return null if no candidate family, or not annotated to any gene.
+         */
+        private ComRow comRow(VcfRecord oneLineArr, GenotypeBits g, Metrics.Local mt){
+            long t = mt == null ? 0 : System.nanoTime();
+            long key = VariantKeys.NO_KEY;
+            int[] genes = null;
+            if (geneIntervals != null) {
+                int pos = Integer.parseInt(oneLineArr.field(1));
+                genes = geneIntervals.query(oneLineArr.field(0), pos, pos + oneLineArr.end[3] - oneLineArr.start[3] - 1);
+                if (genes.length == 0) { //not in any gene.
+                    if (mt != null) {
+                        mt.counts[Metrics.COM_NO_GENE]++;
                     }
-                    
-                    //only permit male or gender missing, X|Y for alt-homo.
-                    if (! ((oneLineArr[0].substring(oneLineArr[0].length()-1, oneLineArr[0].length()).equalsIgnoreCase("x")
-                            || oneLineArr[0].substring(oneLineArr[0].length()-1, oneLineArr[0].length()).equalsIgnoreCase("y")
-                            )
-                            && (genderMap.get(name).equalsIgnoreCase("1") || genderMap.get(name).equalsIgnoreCase("0")))
-                            ) {
-                        return  false;
+                    return null;
+                }
+            }else{
+                key = variantKeys.key(oneLineArr);
+                if (key == VariantKeys.NO_KEY) { //not annotated to any gene.
+                    if (mt != null) {
+                        mt.counts[Metrics.COM_NO_GENE]++;
                     }
+                    return null;
                 }
             }
+            boolean onXY = onSexChromosome(oneLineArr);
+            int n = 0;
+            int[] fams = new int[4];
+            String[] genos = new String[4];
+            for (int f = 0; f < famIndex.famNames.length; f++) {
+                if (allAltAlleleAllMissingFalse(famIndex.caseMasks[f], g) 
+                        && checkAltHomo4Dom(famIndex.caseMasks[f], g, onXY)) {
+                    if (n == fams.length) {
+                        fams = Arrays.copyOf(fams, n * 2);
+                        genos = Arrays.copyOf(genos, n * 2);
+                    }
+                    fams[n] = f;
+                    genos[n++] = familyGenotype(f, oneLineArr);
+                }
+            }
+            if (mt != null) {
+                mt.lap(Metrics.FAMILY, t);
+                mt.counts[n == 0 ? Metrics.COM_NO_FAMILY : Metrics.COM_KEPT]++;
+            }
+            if (n == 0) {
+                return null;
+            }
             
-            return true;
+            ComRow r = new ComRow();
+            r.contig = oneLineArr.field(0);
+            r.key = key;
+            if (genes != null) {
+                r.genes = genes;
+                r.ref = oneLineArr.field(3);
+                r.alt = oneLineArr.field(4);
+            }
+            r.pos = Integer.parseInt(oneLineArr.field(1));
+            r.onXY = onXY;
+            r.packed = PackedGenotypeStore.pack(g);
+            r.fams = Arrays.copyOf(fams, n);
+            r.genos = Arrays.copyOf(genos, n);
+            return r;
         }
         
-         private static void eshare(String[] oneLineArr){
+         String eshare(VcfRecord oneLineArr, GenotypeBits g){
 //            System.out.println("exome.ExomeModelFilterV2.dominantModel()");
-            String[] ss = oneLineArr;
+            VcfRecord ss = oneLineArr;
 
-//            if(allRefHomoAllMissingTrue(ctrlNames, ss) == false){ 
+//            if(allRefHomoAllMissingTrue(famIndex.allCtrlMask, g) == false){ 
 //                // pass this variants, unmet conditon 1.0.
 //                // remove family with all missing, or no alt allele.
 //            }else{
@@ -968,13 +2396,13 @@ public class ExomeModelFilterV2 {
                 int hetCount = 0; //Number of indiviudal with het. genotype.
                 //List<String> candidateFamilies = new LinkedList<String>();
                  
-                for (String cfname :  caseFamilies.keySet()) {
+                for (SampleMask caseMask : famIndex.caseMasks) {
                     //all missing or no alt allele, do not need checking.
-                    if(allRefHomoAllMissingTrue(caseFamilies.get(cfname), oneLineArr)){
+                    if(allRefHomoAllMissingTrue(caseMask, g)){
                       continue;
                       }
                       
-                    long [] re = estimateShareRate(caseFamilies.get(cfname), oneLineArr);
+                    long [] re = estimateShareRate(caseMask, g);
                     if (re[0] >= 0) {
                         hetCount += re[0];
                         total += re[1];
@@ -984,16 +2412,16 @@ public class ExomeModelFilterV2 {
                 StringJoiner cfGeno = new StringJoiner(","); //genotype and coverage info. for candidate family.
                 //chr pos ref alt #candidateFamilies #averageSize #Genotypes
                 StringJoiner sj = new StringJoiner("\t");
-                sj.add(oneLineArr[0]);
-                sj.add(oneLineArr[1]);
-                sj.add(oneLineArr[3]);
-                sj.add(oneLineArr[4]);
+                sj.add(oneLineArr.field(0));
+                sj.add(oneLineArr.field(1));
+                sj.add(oneLineArr.field(3));
+                sj.add(oneLineArr.field(4));
                 
                 sj.add(Integer.toString(hetCount));
                 sj.add(Integer.toString(total));
                 
                 if (total > 0) {
-                    sj.add(formater.format(hetCount * 1.0 / total));
+                    sj.add(formater.get().format(hetCount * 1.0 / total));
                 }else{
                     sj.add("0");
                 }
@@ -1001,7 +2429,7 @@ public class ExomeModelFilterV2 {
                 sj.add(cfGeno.toString());
             
                 //output final results.
-                System.out.println(sj.toString());
+                return sj.toString();
 //            }
         }
 }
@@ -0,0 +1,115 @@
+package exome;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Families and controls compiled to vcf column indexes, built once the
+ * #CHROM line is read. Member names are nameArr[column].
+ */
+final class FamilyIndex {
+    static final byte SEX_UNKNOWN = 0;
+    static final byte SEX_MALE = 1;
+    static final byte SEX_FEMALE = 2;
+    static final byte SEX_OTHER = -1;
+
+    final String[] famNames;  //case families, in the iteration order of caseFamilies.
+    final int[][] caseCols;   //affected members of each case family.
+    final int[][] ctrlCols;   //unaffected members of each case family, empty if none.
+    final int[] allCtrlCols;  //all unaffected individuals.
+    final byte[] sexByCol;    //sex code indexed by vcf column.
+
+    final int colStart;
+    final int nSamples;
+    final GenotypeBits.SampleMask[] caseMasks; //bit masks of caseCols.
+    final GenotypeBits.SampleMask allCtrlMask;
+    final long[] maleOrUnknown; //bits of individuals with male or missing gender.
+
+    //output template of each family, (famName[case1:geno;case2:geno];ctrl1:geno).
+    final int[][] memberCols;   //caseCols then ctrlCols.
+    final byte[][][] templates; //literal bytes before each member's genotype, and the closing bytes.
+
+    FamilyIndex(Map<String, ? extends List<String>> caseFamilies,
+            Map<String, ? extends List<String>> controlFamilies,
+            List<String> ctrlNames,
+            Map<String, String> genderMap,
+            Map<String, Integer> nameIndexMap,
+            int colStart,
+            int nCols) {
+        famNames = caseFamilies.keySet().toArray(new String[0]);
+        caseCols = new int[famNames.length][];
+        ctrlCols = new int[famNames.length][];
+        for (int i = 0; i < famNames.length; i++) {
+            caseCols[i] = toCols(caseFamilies.get(famNames[i]), nameIndexMap);
+            List<String> ctrls = controlFamilies.get(famNames[i]);
+            ctrlCols[i] = ctrls == null ? new int[0] : toCols(ctrls, nameIndexMap);
+        }
+        allCtrlCols = toCols(ctrlNames, nameIndexMap);
+
+        sexByCol = new byte[nCols];
+        for (Map.Entry<String, Integer> e : nameIndexMap.entrySet()) {
+            sexByCol[e.getValue()] = sexCode(genderMap.get(e.getKey()));
+        }
+
+        this.colStart = colStart;
+        nSamples = nCols - colStart;
+        caseMasks = new GenotypeBits.SampleMask[famNames.length];
+        for (int i = 0; i < famNames.length; i++) {
+            caseMasks[i] = new GenotypeBits.SampleMask(caseCols[i], colStart);
+        }
+        allCtrlMask = new GenotypeBits.SampleMask(allCtrlCols, colStart);
+        String[] colNames = new String[nCols];
+        for (Map.Entry<String, Integer> e : nameIndexMap.entrySet()) {
+            colNames[e.getValue()] = e.getKey();
+        }
+        memberCols = new int[famNames.length][];
+        templates = new byte[famNames.length][][];
+        for (int i = 0; i < famNames.length; i++) {
+            int nc = caseCols[i].length;
+            memberCols[i] = Arrays.copyOf(caseCols[i], nc + ctrlCols[i].length);
+            System.arraycopy(ctrlCols[i], 0, memberCols[i], nc, ctrlCols[i].length);
+            templates[i] = new byte[memberCols[i].length + 1][];
+            for (int k = 0; k < memberCols[i].length; k++) {
+                String before = k == 0 ? "(" + famNames[i] + "[" : k == nc ? "];" : ";";
+                templates[i][k] = (before + colNames[memberCols[i][k]] + ":").getBytes(StandardCharsets.ISO_8859_1);
+            }
+            templates[i][memberCols[i].length] = (ctrlCols[i].length == 0 ? "])" : ")").getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        maleOrUnknown = new long[(nSamples + 63) >>> 6];
+        for (int i = 0; i < nSamples; i++) {
+            byte sex = sexByCol[colStart + i];
+            if (sex == SEX_MALE || sex == SEX_UNKNOWN) {
+                maleOrUnknown[i >>> 6] |= 1L << i;
+            }
+        }
+    }
+
+    private static int[] toCols(List<String> names, Map<String, Integer> nameIndexMap){
+        int[] re = new int[names.size()];
+        int i = 0;
+        for (String n : names) {
+            re[i++] = nameIndexMap.get(n);
+        }
+        return re;
+    }
+
+    /**
+     * Gender coding in ped file, 1 for male, 2 for female, 0 for missing.
+     * @param s
+     * @return
+     */
+    static byte sexCode(String s){
+        if (s == null) {
+            return SEX_UNKNOWN;
+        }
+        switch (s) {
+            case "0": return SEX_UNKNOWN;
+            case "1": return SEX_MALE;
+            case "2": return SEX_FEMALE;
+            default: return SEX_OTHER;
+        }
+    }
+}
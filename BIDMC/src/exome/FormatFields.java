@@ -0,0 +1,131 @@
+package exome;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sub-field indexes of the FORMAT column, eg. GT:AD:DP:GQ, parsed once per
+ * distinct FORMAT string and cached, consecutive lines with the same FORMAT
+ * compare its bytes only.
+ * Genotypes with GQ or DP below the thresholds (-mingq, -mindp) are masked
+ * as missing, a missing or absent GQ/DP value is not masked.
+ * One per worker thread, not thread safe.
+ */
+final class FormatFields {
+    private static final int FORMAT_COL = 8;
+
+    private final int minGQ; //-1: no threshold.
+    private final int minDP;
+    private final Map<String, int[]> cache = new HashMap<>(); //FORMAT -> {GT, DP, GQ} indexes.
+    private byte[] last = null; //FORMAT of the previous line.
+
+    //sub-field indexes of the current line, -1 if absent.
+    int gt = 0;
+    int dp = -1;
+    int gq = -1;
+
+    FormatFields(int minGQ, int minDP) {
+        this.minGQ = minGQ;
+        this.minDP = minDP;
+    }
+
+    /**
+     * Set the sub-field indexes by the FORMAT of a line.
+     * @param rec
+     */
+    void parse(VcfRecord rec){
+        if (rec.nCols <= FORMAT_COL) {
+            gt = 0;
+            dp = gq = -1;
+            last = null; //the next FORMAT is parsed again.
+            return;
+        }
+        int from = rec.start[FORMAT_COL], to = rec.end[FORMAT_COL];
+        if (last != null && last.length == to - from) {
+            int i = 0;
+            while (i < last.length && rec.buf[from + i] == last[i]) {
+                i++;
+            }
+            if (i == last.length) {
+                return;
+            }
+        }
+        String format = rec.field(FORMAT_COL);
+        int[] idx = cache.get(format);
+        if (idx == null) {
+            idx = new int[]{-1, -1, -1};
+            String[] ss = format.split(":");
+            for (int i = 0; i < ss.length; i++) {
+                int k = ss[i].equals("GT") ? 0 : ss[i].equals("DP") ? 1 : ss[i].equals("GQ") ? 2 : -1;
+                if (k >= 0 && idx[k] < 0) {
+                    idx[k] = i;
+                }
+            }
+            cache.put(format, idx);
+        }
+        last = Arrays.copyOfRange(rec.buf, from, to);
+        gt = idx[0];
+        dp = idx[1];
+        gq = idx[2];
+    }
+
+    /**
+     * Whether the genotype of a sample column is masked by GQ or DP thresholds.
+     * @param rec
+     * @param col
+     * @return
+     */
+    boolean masked(VcfRecord rec, int col){
+        return (minGQ > 0 && gq >= 0 && intValue(rec, col, gq) < minGQ)
+                || (minDP > 0 && dp >= 0 && intValue(rec, col, dp) < minDP);
+    }
+
+    /**
+     * Start offset of the k-th sub-field of a column.
+     * @return -1 if the column has less sub-fields.
+     */
+    static int subFieldStart(VcfRecord rec, int col, int k){
+        int i = rec.start[col];
+        for (int n = 0; n < k; i++) {
+            if (i >= rec.end[col]) {
+                return -1;
+            }
+            if (rec.buf[i] == ':') {
+                n++;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * End offset of a sub-field starting at 'from'.
+     */
+    static int subFieldEnd(VcfRecord rec, int col, int from){
+        int i = from;
+        while (i < rec.end[col] && rec.buf[i] != ':') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Integer value of the k-th sub-field of a column.
+     * @return Integer.MAX_VALUE if absent or missing, never masked.
+     */
+    private static int intValue(VcfRecord rec, int col, int k){
+        int i = subFieldStart(rec, col, k);
+        if (i < 0) {
+            return Integer.MAX_VALUE;
+        }
+        int e = subFieldEnd(rec, col, i);
+        if (i == e || rec.buf[i] < '0' || rec.buf[i] > '9') {
+            return Integer.MAX_VALUE;
+        }
+        int v = 0;
+        for (; i < e && rec.buf[i] >= '0' && rec.buf[i] <= '9'; i++) {
+            v = v * 10 + (rec.buf[i] - '0');
+        }
+        return v;
+    }
+}
@@ -0,0 +1,153 @@
+package exome;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Last annotated position of each gene on each contig, for streaming the
+ * compound hetero. model over a position sorted vcf.
+ * A gene is complete once the stream passed its last position on every contig.
+ */
+final class GeneEnds {
+    private final Map<String, Map<String, Integer>> geneContigEnd = new HashMap<>(); //gene -> (contig -> last pos).
+
+    private int[] pendingContigs;                    //number of contigs not passed yet, by gene id.
+    private int[] allContigs;                        //pendingContigs before the stream, for reset().
+    private Map<String, long[]> contigEnds;          //contig -> sorted (pos << 32 | gene id).
+    private String[] geneNames;
+    private final Set<String> passedContigs = new HashSet<>();
+
+    private String curContig = null;
+    private long[] curEnds = null;
+    private int curNext = 0;
+    private int curPos = -1;
+
+    /**
+     * Record one annotated site, at loading the gene annotation file.
+     * @param gene
+     * @param contig
+     * @param pos
+     */
+    void add(String gene, String contig, int pos){
+        Map<String, Integer> m = geneContigEnd.get(gene);
+        if (m == null) {
+            m = new HashMap<>(2);
+            geneContigEnd.put(gene, m);
+        }
+        Integer e = m.get(contig);
+        if (e == null || e < pos) {
+            m.put(contig, pos);
+        }
+    }
+
+    /**
+     * Build the sorted end positions, after all sites were added.
+     */
+    void build(){
+        geneNames = geneContigEnd.keySet().toArray(new String[0]);
+        pendingContigs = new int[geneNames.length];
+        Map<String, List<Long>> ends = new HashMap<>();
+        for (int i = 0; i < geneNames.length; i++) {
+            Map<String, Integer> m = geneContigEnd.get(geneNames[i]);
+            pendingContigs[i] = m.size();
+            for (Map.Entry<String, Integer> e : m.entrySet()) {
+                if (!ends.containsKey(e.getKey())) {
+                    ends.put(e.getKey(), new ArrayList<>());
+                }
+                ends.get(e.getKey()).add((long) e.getValue() << 32 | i);
+            }
+        }
+        allContigs = pendingContigs.clone();
+        contigEnds = new HashMap<>(ends.size() * 2);
+        for (Map.Entry<String, List<Long>> e : ends.entrySet()) {
+            long[] arr = e.getValue().stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(arr);
+            contigEnds.put(e.getKey(), arr);
+        }
+        geneContigEnd.clear();
+    }
+
+    /**
+     * A new stream over the same ends, eg. one job of the daemon, the sorted ends are shared.
+     * @return
+     */
+    GeneEnds copy(){
+        GeneEnds re = new GeneEnds();
+        if (allContigs != null) {
+            re.geneNames = geneNames;
+            re.contigEnds = contigEnds;
+            re.allContigs = allContigs;
+            re.pendingContigs = allContigs.clone();
+        }
+        return re;
+    }
+
+    /**
+     * Move the stream to a site.
+     * @param contig
+     * @param pos
+     * @return genes completed before this site.
+     * @throws IOException if the vcf is not sorted.
+     */
+    List<String> advance(String contig, int pos) throws IOException{
+        List<String> done = new LinkedList<>();
+        if (!contig.equals(curContig)) {
+            if (curContig != null) {
+                passContig(done);
+            }
+            if (passedContigs.contains(contig)) {
+                throw new IOException("ERROR: vcf is not sorted by position, contig appears again: " + contig);
+            }
+            curContig = contig;
+            curEnds = contigEnds.get(contig);
+            curNext = 0;
+            curPos = -1;
+        }
+        if (pos < curPos) {
+            throw new IOException("ERROR: vcf is not sorted by position: " + contig + ":" + pos);
+        }
+        curPos = pos;
+        while (curEnds != null && curNext < curEnds.length && (int) (curEnds[curNext] >>> 32) < pos) {
+            geneDone((int) curEnds[curNext++], done);
+        }
+        return done;
+    }
+
+    /**
+     * End of the stream, all the remaining genes are completed.
+     * @return
+     */
+    List<String> finish(){
+        List<String> done = new LinkedList<>();
+        if (curContig != null) {
+            passContig(done);
+        }
+        for (int i = 0; i < geneNames.length; i++) {
+            if (pendingContigs[i] > 0) {
+                pendingContigs[i] = 0;
+                done.add(geneNames[i]);
+            }
+        }
+        return done;
+    }
+
+    private void passContig(List<String> done){
+        while (curEnds != null && curNext < curEnds.length) {
+            geneDone((int) curEnds[curNext++], done);
+        }
+        passedContigs.add(curContig);
+    }
+
+    private void geneDone(int id, List<String> done){
+        if (--pendingContigs[id] == 0) {
+            done.add(geneNames[id]);
+        }
+    }
+}
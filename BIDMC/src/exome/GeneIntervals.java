@@ -0,0 +1,167 @@
+package exome;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Gene intervals from a BED or GTF file, to assign vcf sites to genes on the fly.
+ * Intervals of each contig are sorted by start, with the running maximum of
+ * the ends, so a query scans back from the last start <= end of the site and
+ * stops once no earlier interval can reach the site.
+ * Read only after build(), shared by worker threads.
+ */
+final class GeneIntervals {
+    private final Map<String, Integer> geneIds = new HashMap<>();
+    final List<String> geneNames = new ArrayList<>();
+
+    private final Map<String, List<long[]>> raw = new HashMap<>(); //contig -> {start, end, gene id}.
+    private final Map<String, int[][]> index = new HashMap<>();    //contig -> {starts, ends, maxEnds, gene ids}.
+
+    /**
+     * Read a BED (chr start end name, 0-based start) or GTF (gene features,
+     * gene_name or gene_id) file, may be gzip compressed.
+     * @param file
+     * @throws IOException
+     */
+    GeneIntervals(String file) throws IOException {
+        boolean gtf = file.contains(".gtf");
+        InputStream is = Files.newInputStream(Paths.get(file));
+        if (file.endsWith(".gz")) {
+            is = new GZIPInputStream(is, 1 << 16);
+        }
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(is, StandardCharsets.ISO_8859_1))) {
+            String s;
+            while ((s = br.readLine()) != null) {
+                if (s.isEmpty() || s.startsWith("#") || s.startsWith("track") || s.startsWith("browser")) {
+                    continue;
+                }
+                String[] ss = s.split("\t");
+                if (gtf) {
+                    if (ss.length >= 9 && ss[2].equals("gene")) {
+                        String name = attribute(ss[8], "gene_name");
+                        add(ss[0], Integer.parseInt(ss[3]), Integer.parseInt(ss[4]), name != null ? name : attribute(ss[8], "gene_id"));
+                    }
+                }else{
+                    if (ss.length < 4) {
+                        ss = s.trim().split("\\s+");
+                    }
+                    add(ss[0], Integer.parseInt(ss[1]) + 1, Integer.parseInt(ss[2]), ss[3]);
+                }
+            }
+        }
+        build();
+    }
+
+    /**
+     * Value of a GTF attribute, eg. gene_name "BRCA1";
+     */
+    private static String attribute(String attrs, String name){
+        int i = attrs.indexOf(name + " ");
+        if (i < 0) {
+            return null;
+        }
+        int b = attrs.indexOf('"', i);
+        int e = b < 0 ? -1 : attrs.indexOf('"', b + 1);
+        return e < 0 ? null : attrs.substring(b + 1, e);
+    }
+
+    /**
+     * Add one gene interval, 1-based and inclusive.
+     */
+    private void add(String contig, int start, int end, String gene){
+        if (gene == null) {
+            return;
+        }
+        Integer g = geneIds.get(gene);
+        if (g == null) {
+            g = geneNames.size();
+            geneIds.put(gene, g);
+            geneNames.add(gene);
+        }
+        if (!raw.containsKey(contig)) {
+            raw.put(contig, new ArrayList<>());
+        }
+        raw.get(contig).add(new long[]{start, end, g});
+    }
+
+    private void build(){
+        for (Map.Entry<String, List<long[]>> e : raw.entrySet()) {
+            List<long[]> l = e.getValue();
+            l.sort((a, b) -> Long.compare(a[0], b[0]));
+            int[][] idx = new int[4][l.size()];
+            int max = 0;
+            for (int i = 0; i < l.size(); i++) {
+                idx[0][i] = (int) l.get(i)[0];
+                idx[1][i] = (int) l.get(i)[1];
+                max = Math.max(max, idx[1][i]);
+                idx[2][i] = max;
+                idx[3][i] = (int) l.get(i)[2];
+            }
+            index.put(e.getKey(), idx);
+        }
+        raw.clear();
+    }
+
+    /**
+     * Last position of each gene on each contig, for streaming mode.
+     * @param ends
+     */
+    void addEnds(GeneEnds ends){
+        for (Map.Entry<String, int[][]> e : index.entrySet()) {
+            int[][] idx = e.getValue();
+            for (int i = 0; i < idx[0].length; i++) {
+                ends.add(geneNames.get(idx[3][i]), e.getKey(), idx[1][i]);
+            }
+        }
+    }
+
+    /**
+     * Genes overlapping the site [beg, end].
+     * @param contig
+     * @param beg
+     * @param end
+     * @return sorted unique gene ids, empty if none.
+     */
+    int[] query(String contig, int beg, int end){
+        int[][] idx = index.get(contig);
+        if (idx == null) {
+            return new int[0];
+        }
+        //last interval starts <= end.
+        int i = Arrays.binarySearch(idx[0], end + 1);
+        i = i < 0 ? -i - 2 : i - 1;
+        while (i >= 0 && idx[0][i] > end) {
+            i--;
+        }
+        int[] re = new int[2];
+        int n = 0;
+        for (; i >= 0 && idx[2][i] >= beg; i--) {
+            if (idx[1][i] >= beg) {
+                if (n == re.length) {
+                    re = Arrays.copyOf(re, n * 2);
+                }
+                re[n++] = idx[3][i];
+            }
+        }
+        re = Arrays.copyOf(re, n);
+        Arrays.sort(re);
+        int u = 0;
+        for (int k = 0; k < n; k++) {
+            if (u == 0 || re[u-1] != re[k]) {
+                re[u++] = re[k];
+            }
+        }
+        return Arrays.copyOf(re, u);
+    }
+}
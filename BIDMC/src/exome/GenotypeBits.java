@@ -0,0 +1,174 @@
+package exome;
+
+import java.util.Arrays;
+
+/**
+ * Genotype states of all individuals at one site, one bit per individual.
+ * Individual i is vcf column (colStart + i).
+ *
+ * nonMissing: first allele is not '.'.
+ * ref:        00.
+ * alt:        carrying alt. allele, not 00, 0|. or missing.
+ * altHom:     alt homo, both alleles are not 0, eg. 11, 1|.
+ * Alleles may have several digits (eg. 0/12), a haploid call a is taken as a/a,
+ * only the first two alleles of a polyploid call are checked.
+ */
+final class GenotypeBits {
+    final int nSamples;
+    final long[] nonMissing;
+    final long[] ref;
+    final long[] alt;
+    final long[] altHom;
+
+    //genotype state of one individual, bits of decodeGT().
+    static final int NON_MISSING = 1;
+    static final int REF = 2;
+    static final int ALT = 4;
+    static final int ALT_HOM = 8;
+
+    /**
+     * Individuals of a family or the control set, only the words with members are kept.
+     */
+    static final class SampleMask {
+        final int[] words; //word index.
+        final long[] bits; //member bits in each word.
+        final int size;
+
+        SampleMask(int[] cols, int colStart) {
+            int[] idx = new int[cols.length];
+            for (int i = 0; i < cols.length; i++) {
+                idx[i] = cols[i] - colStart;
+            }
+            Arrays.sort(idx);
+            int n = 0;
+            int[] w = new int[idx.length];
+            long[] b = new long[idx.length];
+            for (int i : idx) {
+                if (n == 0 || w[n-1] != (i >>> 6)) {
+                    w[n++] = i >>> 6;
+                }
+                b[n-1] |= 1L << i;
+            }
+            words = Arrays.copyOf(w, n);
+            bits = Arrays.copyOf(b, n);
+            size = cols.length;
+        }
+    }
+
+    GenotypeBits(int nSamples) {
+        this.nSamples = nSamples;
+        int nWords = (nSamples + 63) >>> 6;
+        nonMissing = new long[nWords];
+        ref = new long[nWords];
+        alt = new long[nWords];
+        altHom = new long[nWords];
+    }
+
+    /**
+     * Decode the genotypes of one line, vcf columns from colStart.
+     * @param rec
+     * @param colStart
+     * @param fmt FORMAT of this line, for the GT index and GQ/DP masking.
+     */
+    void decode(VcfRecord rec, int colStart, FormatFields fmt){
+        int n = Math.min(nSamples, rec.nCols - colStart);
+        Arrays.fill(nonMissing, 0L);
+        Arrays.fill(ref, 0L);
+        Arrays.fill(alt, 0L);
+        Arrays.fill(altHom, 0L);
+        long m = 0, r = 0, a = 0, h = 0;
+        for (int i = 0; i < n; i++) {
+            int c = colStart + i;
+            int st = decodeSample(rec, c, fmt);
+            if (st != 0) {
+                long bit = 1L << i;
+                m |= bit;
+                if ((st & REF) != 0) {
+                    r |= bit;
+                }
+                if ((st & ALT) != 0) {
+                    a |= bit;
+                }
+                if ((st & ALT_HOM) != 0) {
+                    h |= bit;
+                }
+            }
+            if ((i & 63) == 63 || i == n - 1) { //flush one word.
+                int w = i >>> 6;
+                nonMissing[w] = m;
+                ref[w] = r;
+                alt[w] = a;
+                altHom[w] = h;
+                m = r = a = h = 0;
+            }
+        }
+    }
+
+    /**
+     * State of one sample column, masked as missing by GQ/DP thresholds.
+     * @param rec
+     * @param col
+     * @param fmt
+     * @return state bits, 0 if missing.
+     */
+    static int decodeSample(VcfRecord rec, int col, FormatFields fmt){
+        int from = fmt.gt == 0 ? rec.start[col] : fmt.gt < 0 ? -1 : FormatFields.subFieldStart(rec, col, fmt.gt);
+        if (from < 0) {
+            return 0;
+        }
+        int st = decodeGT(rec.buf, from, rec.end[col]);
+        return st != 0 && fmt.masked(rec, col) ? 0 : st;
+    }
+
+    /**
+     * Decode the GT of a sample column buf[from, to), the sub-field before the first ':'.
+     * Alleles are read digit by digit, '/' or '|' separated, '.' for missing.
+     * @param buf
+     * @param from
+     * @param to
+     * @return state bits, 0 if the first allele is missing.
+     */
+    static int decodeGT(byte[] buf, int from, int to){
+        int a0 = -1, a1 = -1; //-1 missing.
+        int k = 0; //allele being read.
+        int v = -1;
+        int i = from;
+        for (; i < to; i++) {
+            byte b = buf[i];
+            if (b >= '0' && b <= '9') {
+                v = (v < 0 ? 0 : v * 10) + (b - '0');
+            }else if (b == '/' || b == '|') {
+                if (k == 0) {
+                    a0 = v;
+                }else if (k == 1) {
+                    a1 = v;
+                }
+                k++;
+                v = -1;
+            }else if (b == ':') {
+                break;
+            }else{ //'.' or unexpected char, missing allele.
+                v = -1;
+            }
+        }
+        if (k == 0) { //haploid.
+            a0 = a1 = v;
+        }else if (k == 1) {
+            a1 = v;
+        }
+        return state(a0, a1);
+    }
+
+    /**
+     * State bits of alleles a0 and a1, -1 for missing.
+     */
+    static int state(int a0, int a1){
+        if (a0 < 0) {
+            return 0;
+        }
+        if (a0 == 0) {
+            return a1 == 0 ? NON_MISSING | REF : a1 > 0 ? NON_MISSING | ALT : NON_MISSING;
+        }
+        return a1 == 0 ? NON_MISSING | ALT : NON_MISSING | ALT | ALT_HOM;
+    }
+}
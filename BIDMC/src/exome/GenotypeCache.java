@@ -0,0 +1,613 @@
+package exome;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary genotype cache of a vcf, written once by the convert command and
+ * memory mapped by later runs (-cache), no text parsing when checking models.
+ *
+ * Layout, little endian:
+ *      header       magic, version, nSamples, nGT, nSites, offsets of the sections below.
+ *      genotypes    one record per site, 8 bytes aligned sections:
+ *                   head (long), number of exceptions | DP width << 32 | GQ width << 40.
+ *                   2 bits genotype of each sample, 32 samples per long as PackedGenotypeStore,
+ *                   00 missing (./.), 01 0/0, 10 0/1, 11 1/1.
+ *                   exceptions, samples whose GT is not one of the above strings (eg. 1/0, 0|1, 0/.),
+ *                   one long each by sample order, sample << 32 | state bits << 16 | GT code.
+ *                   DP, then GQ of each sample, 0, 1, 2 or 4 bytes each, the smallest width
+ *                   holding the values of the site, 0 if no sample has it.
+ *      sites        CHROM, POS, ID, REF and ALT of each site, tab separated.
+ *      index        offsets of the genotype record and of the site in sites, nSites + 1 pairs of longs.
+ *      samples      sample names, tab separated.
+ *      GT table     GT strings of the exceptions, '\n' separated, GT code is the index.
+ * Genotypes are decoded without GQ/DP thresholds, these are applied when reading.
+ * Genotypes, sites and the index are memory mapped, none of them is limited by the heap
+ * or 2g bytes, the writer streams sites and the index to temp files next to the cache.
+ */
+final class GenotypeCache {
+    private static final int MAGIC = 0x43475845; //"EXGC".
+    private static final int VERSION = 2;
+    private static final int HEADER_LEN = 64;
+    static final int ABSENT = -1;  //DP/GQ not in FORMAT or sample.
+    static final int MISSING = -2; //DP/GQ is '.'.
+    private static final byte[][] GT_OF_CODE = {"./.".getBytes(StandardCharsets.ISO_8859_1),
+        "0/0".getBytes(StandardCharsets.ISO_8859_1), "0/1".getBytes(StandardCharsets.ISO_8859_1),
+        "1/1".getBytes(StandardCharsets.ISO_8859_1)};
+
+    final int nSamples;
+    final int nSites;
+    private final int nWords;
+    private final int codeWords; //longs of the 2 bits genotypes.
+    private final int siteBytes; //average bytes of one genotype record.
+    private final Section genotypes;
+    private final Section sites;
+    private final Section index;
+    private final String[] sampleNames;
+    private final byte[][] gtTable; //GT string of each GT code.
+
+    /**
+     * Map a cache file.
+     * @param file
+     * @throws IOException
+     */
+    GenotypeCache(String file) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            ByteBuffer h = read(ch, 0, HEADER_LEN);
+            if (h.getInt(0) != MAGIC || h.getInt(4) != VERSION) {
+                throw new IOException("ERROR: not a genotype cache file of this version, please convert again: " + file);
+            }
+            nSamples = h.getInt(8);
+            int nGT = h.getInt(12);
+            nSites = (int) h.getLong(16);
+            long sitesOff = h.getLong(24), indexOff = h.getLong(32), samplesOff = h.getLong(40), gtOff = h.getLong(48), end = h.getLong(56);
+            nWords = (nSamples + 63) >>> 6;
+            codeWords = Math.max(1, (nSamples * 2 + 63) >>> 6);
+            siteBytes = (int) Math.min(Integer.MAX_VALUE, Math.max(1, (sitesOff - HEADER_LEN) / Math.max(1, nSites)));
+            genotypes = new Section(ch, HEADER_LEN, sitesOff - HEADER_LEN);
+            sites = new Section(ch, sitesOff, indexOff - sitesOff);
+            index = new Section(ch, indexOff, samplesOff - indexOff);
+            if (samplesOff - indexOff != (nSites + 1) * 16L) {
+                throw new IOException("ERROR: broken genotype cache file: " + file);
+            }
+            String names = new String(read(ch, samplesOff, gtOff - samplesOff).array(), StandardCharsets.ISO_8859_1);
+            sampleNames = nSamples == 0 ? new String[0] : names.split("\t", -1);
+            String gts = new String(read(ch, gtOff, end - gtOff).array(), StandardCharsets.ISO_8859_1);
+            gtTable = new byte[nGT][];
+            String[] ss = gts.split("\n", -1);
+            for (int i = 0; i < nGT; i++) {
+                gtTable[i] = ss[i].getBytes(StandardCharsets.ISO_8859_1);
+            }
+        }
+        if (sampleNames.length != nSamples) {
+            throw new IOException("ERROR: broken genotype cache file: " + file);
+        }
+    }
+
+    /**
+     * Bytes rounded up to a multiple of 8.
+     */
+    private static int align(int n){
+        return (n + 7) & ~7;
+    }
+
+    private static ByteBuffer read(FileChannel ch, long pos, long len) throws IOException{
+        if (len > Integer.MAX_VALUE - 8) {
+            throw new IOException("ERROR: genotype cache section too large.");
+        }
+        ByteBuffer b = ByteBuffer.allocate((int) len).order(ByteOrder.LITTLE_ENDIAN);
+        while (b.hasRemaining()) {
+            if (ch.read(b, pos + b.position()) < 0) {
+                throw new IOException("ERROR: truncated genotype cache file.");
+            }
+        }
+        b.flip();
+        return b;
+    }
+
+    /**
+     * A section of the file mapped in chunks of 1g bytes, read by offsets in the section.
+     * Values at offsets of multiple of their size are never split by chunks.
+     */
+    private static final class Section {
+        private static final int CHUNK_BITS = 30;
+        private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+        private final MappedByteBuffer[] chunks;
+
+        Section(FileChannel ch, long from, long len) throws IOException {
+            if (len < 0 || from + len > ch.size()) {
+                throw new IOException("ERROR: truncated genotype cache file.");
+            }
+            chunks = new MappedByteBuffer[(int) ((len + CHUNK_MASK) >>> CHUNK_BITS)];
+            for (int c = 0; c < chunks.length; c++) {
+                long off = (long) c << CHUNK_BITS;
+                chunks[c] = ch.map(FileChannel.MapMode.READ_ONLY, from + off, Math.min(len - off, 1L << CHUNK_BITS));
+                chunks[c].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+
+        long getLong(long off){
+            return chunks[(int) (off >>> CHUNK_BITS)].getLong((int) (off & CHUNK_MASK));
+        }
+
+        int getInt(long off){
+            return chunks[(int) (off >>> CHUNK_BITS)].getInt((int) (off & CHUNK_MASK));
+        }
+
+        char getChar(long off){
+            return chunks[(int) (off >>> CHUNK_BITS)].getChar((int) (off & CHUNK_MASK));
+        }
+
+        byte get(long off){
+            return chunks[(int) (off >>> CHUNK_BITS)].get((int) (off & CHUNK_MASK));
+        }
+    }
+
+    /**
+     * The #CHROM header line of the converted vcf.
+     * @return
+     */
+    String chromLine(){
+        StringBuilder sb = new StringBuilder("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+        for (String s : sampleNames) {
+            sb.append('\t').append(s);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Average bytes of one genotype record, to size batches.
+     */
+    int siteBytes(){
+        return siteBytes;
+    }
+
+    /**
+     * Set rec to the CHROM, POS, ID, REF and ALT columns of a site,
+     * sample columns are read from this cache.
+     * @param site
+     * @param rec
+     */
+    void site(int site, VcfRecord rec){
+        long from = index.getLong(site * 16L + 8);
+        int len = (int) (index.getLong(site * 16L + 24) - from);
+        byte[] b = rec.cache == this && rec.buf.length >= len ? rec.buf : new byte[Math.max(len, 256)]; //reused for the next sites.
+        for (int i = 0; i < len; i++) {
+            b[i] = sites.get(from + i);
+        }
+        rec.set(b, 0, len);
+        rec.cache = this;
+        rec.site = site;
+    }
+
+    /**
+     * Genotypes of a site, genotypes with GQ or DP below the thresholds are masked as missing.
+     * @param site
+     * @param g
+     * @param minGQ -1 for no threshold.
+     * @param minDP
+     */
+    void decode(int site, GenotypeBits g, int minGQ, int minDP){
+        long off = index.getLong(site * 16L);
+        long head = genotypes.getLong(off);
+        int nExceptions = (int) head;
+        off += 8;
+        for (int w = 0; w < nWords; w++) {
+            long p0 = genotypes.getLong(off + w * 16L);
+            long p1 = 2*w + 1 < codeWords ? genotypes.getLong(off + w * 16L + 8) : 0L;
+            long hi = (PackedGenotypeStore.compact(p0 >>> 1) & 0xFFFFFFFFL) | (PackedGenotypeStore.compact(p1 >>> 1) << 32);
+            long lo = (PackedGenotypeStore.compact(p0) & 0xFFFFFFFFL) | (PackedGenotypeStore.compact(p1) << 32);
+            g.nonMissing[w] = hi | lo;
+            g.ref[w] = lo & ~hi;
+            g.alt[w] = hi;
+            g.altHom[w] = hi & lo;
+        }
+        off += codeWords * 8L;
+        for (int k = 0; k < nExceptions; k++) {
+            long e = genotypes.getLong(off + k * 8L);
+            int st = (int) (e >>> 16) & 0xFF;
+            if (st != 0) { //eg. 0/., not missing but neither ref nor alt.
+                int i = (int) (e >>> 32);
+                long bit = 1L << i;
+                g.nonMissing[i >>> 6] |= bit;
+                if ((st & GenotypeBits.REF) != 0) {
+                    g.ref[i >>> 6] |= bit;
+                }
+                if ((st & GenotypeBits.ALT) != 0) {
+                    g.alt[i >>> 6] |= bit;
+                }
+                if ((st & GenotypeBits.ALT_HOM) != 0) {
+                    g.altHom[i >>> 6] |= bit;
+                }
+            }
+        }
+        if (minGQ <= 0 && minDP <= 0) {
+            return;
+        }
+        int dpWidth = (int) (head >>> 32) & 0xFF;
+        int gqWidth = (int) (head >>> 40) & 0xFF;
+        long dpOff = off + nExceptions * 8L;
+        long gqOff = dpOff + align(nSamples * dpWidth);
+        for (int w = 0; w < nWords; w++) {
+            long m = g.nonMissing[w];
+            while (m != 0) {
+                int i = w * 64 + Long.numberOfTrailingZeros(m);
+                m &= m - 1;
+                int gq = value(gqOff, gqWidth, i);
+                int dp = value(dpOff, dpWidth, i);
+                if ((minGQ > 0 && gq >= 0 && gq < minGQ) || (minDP > 0 && dp >= 0 && dp < minDP)) {
+                    long bit = ~(1L << i);
+                    g.nonMissing[w] &= bit;
+                    g.ref[w] &= bit;
+                    g.alt[w] &= bit;
+                    g.altHom[w] &= bit;
+                }
+            }
+        }
+    }
+
+    /**
+     * DP or GQ of sample i, stored in width bytes from off.
+     * @return ABSENT or MISSING if not an integer.
+     */
+    private int value(long off, int width, int i){
+        int v;
+        switch (width) {
+            case 1:
+                v = genotypes.get(off + i) & 0xFF;
+                return v == 0xFF ? ABSENT : v == 0xFE ? MISSING : v;
+            case 2:
+                v = genotypes.getChar(off + i * 2L);
+                return v == 0xFFFF ? ABSENT : v == 0xFFFE ? MISSING : v;
+            case 4:
+                return genotypes.getInt(off + i * 4L);
+            default:
+                return ABSENT;
+        }
+    }
+
+    /**
+     * Append GT:DP of one sample, GT only if no DP, same as the vcf output.
+     * @param site
+     * @param sample sample index, vcf column - 9.
+     * @param out
+     */
+    void appendGenotype(int site, int sample, ByteOutput out){
+        long off = index.getLong(site * 16L);
+        long head = genotypes.getLong(off);
+        int nExceptions = (int) head;
+        off += 8;
+        long p = genotypes.getLong(off + (sample >>> 5) * 8L);
+        byte[] gt = GT_OF_CODE[(int) (p >>> ((sample & 31) * 2)) & 3];
+        off += codeWords * 8L;
+        //exceptions by sample order.
+        int lo = 0, hi = nExceptions - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long e = genotypes.getLong(off + mid * 8L);
+            int i = (int) (e >>> 32);
+            if (i < sample) {
+                lo = mid + 1;
+            }else if (i > sample) {
+                hi = mid - 1;
+            }else{
+                gt = gtTable[(int) e & 0xFFFF];
+                break;
+            }
+        }
+        out.append(gt);
+        int dp = value(off + nExceptions * 8L, (int) (head >>> 32) & 0xFF, sample);
+        if (dp == MISSING) {
+            out.append(":.");
+        }else if (dp != ABSENT) {
+            out.append(':').append(dp);
+        }
+    }
+
+    /**
+     * Convert a vcf to a cache file.
+     * @param in vcf lines, with header.
+     * @param file
+     * @param split split multi-allelic sites, as -split.
+     * @return number of sites.
+     * @throws IOException
+     */
+    static int convert(VcfLineReader in, String file, boolean split) throws IOException{
+        final int colStart = 9;
+        String[] names = null;
+        String s;
+        while ((s = in.readLine()) != null) {
+            if (s.startsWith("#CHROM")) {
+                String[] ss = s.trim().split("\\s+");
+                names = Arrays.copyOfRange(ss, colStart, ss.length);
+                break;
+            }
+        }
+        if (names == null) {
+            throw new IOException("ERROR: no #CHROM line in vcf.");
+        }
+        int nSamples = names.length;
+        Path sitesTmp = Paths.get(file + ".sites.tmp");
+        Path indexTmp = Paths.get(file + ".index.tmp");
+        try (FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ);
+                Writer w = new Writer(nSamples, sitesTmp, indexTmp)) {
+            ch.position(HEADER_LEN);
+            OutputStream os = new BufferedOutputStream(Channels.newOutputStream(ch), 1 << 20);
+            VcfRecord rec = new VcfRecord();
+            VcfRecord one = new VcfRecord();
+            ByteOutput splitLine = new ByteOutput(1 << 12);
+            FormatFields fmt = new FormatFields(-1, -1); //GT index for splitting.
+            VcfLineReader.Block block;
+            while ((block = in.readBlock(1 << 22)) != null) {
+                for (int from = 0, to; from < block.len; from = to + 1) {
+                    to = from;
+                    while (to < block.len && block.buf[to] != '\n') {
+                        to++;
+                    }
+                    rec.set(block.buf, from, to);
+                    if (rec.nCols == 0 || block.buf[rec.start[0]] == '#') {
+                        continue;
+                    }
+                    if (split && rec.nAlts() > 1) {
+                        int nAlts = rec.nAlts();
+                        fmt.parse(rec);
+                        for (int k = 1; k <= nAlts; k++) {
+                            splitLine.setLength(0);
+                            rec.splitAllele(k, colStart, fmt.gt, splitLine);
+                            one.set(splitLine.buffer(), 0, splitLine.length());
+                            w.add(one, colStart, os);
+                        }
+                    }else{
+                        w.add(rec, colStart, os);
+                    }
+                }
+            }
+            os.flush();
+            w.finish();
+            //sections after the genotype records, then the header.
+            long sitesOff = ch.position();
+            append(sitesTmp, ch);
+            long indexOff = ch.position();
+            append(indexTmp, ch);
+            long samplesOff = ch.position();
+            os.write(String.join("\t", names).getBytes(StandardCharsets.ISO_8859_1));
+            os.flush();
+            long gtOff = ch.position();
+            os.write(String.join("\n", w.gtList).getBytes(StandardCharsets.ISO_8859_1));
+            os.flush();
+            long end = ch.position();
+            ByteBuffer h = ByteBuffer.allocate(HEADER_LEN).order(ByteOrder.LITTLE_ENDIAN);
+            h.putInt(MAGIC).putInt(VERSION).putInt(nSamples).putInt(w.gtList.size()).putLong(w.nSites)
+                .putLong(sitesOff).putLong(indexOff).putLong(samplesOff).putLong(gtOff).putLong(end);
+            h.flip();
+            ch.write(h, 0);
+            return w.nSites;
+        } finally {
+            Files.deleteIfExists(sitesTmp);
+            Files.deleteIfExists(indexTmp);
+        }
+    }
+
+    /**
+     * Copy a temp file to the end of the cache file.
+     */
+    private static void append(Path tmp, FileChannel ch) throws IOException{
+        try (FileChannel in = FileChannel.open(tmp, StandardOpenOption.READ)) {
+            long n = in.size();
+            for (long pos = 0; pos < n; ) {
+                pos += in.transferTo(pos, n - pos, ch);
+            }
+        }
+    }
+
+    /**
+     * Encode sites to genotype records, sites and the index are streamed to temp files.
+     */
+    private static final class Writer implements AutoCloseable {
+        final int nSamples;
+        final int codeWords;
+        final FormatFields fmt = new FormatFields(-1, -1);
+        final ByteBuffer record;
+        final long[] codes;
+        final int[] dps;
+        final int[] gqs;
+        final Map<String, Integer> gtCodes = new HashMap<>();
+        final List<String> gtList = new ArrayList<>();
+        final ByteOutput site = new ByteOutput(1 << 8); //CHROM to ALT of one site.
+        final OutputStream sites;
+        final OutputStream index;
+        final ByteBuffer indexEntry = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        long genotypesLen = 0;
+        long sitesLen = 0;
+        int nSites = 0;
+
+        Writer(int nSamples, Path sitesTmp, Path indexTmp) throws IOException {
+            this.nSamples = nSamples;
+            codeWords = Math.max(1, (nSamples * 2 + 63) >>> 6);
+            codes = new long[codeWords];
+            dps = new int[nSamples];
+            gqs = new int[nSamples];
+            //largest record: every sample an exception, 4 bytes DP and GQ.
+            record = ByteBuffer.allocate(8 + codeWords * 8 + nSamples * 16 + 16).order(ByteOrder.LITTLE_ENDIAN);
+            sites = new BufferedOutputStream(Files.newOutputStream(sitesTmp), 1 << 20);
+            index = new BufferedOutputStream(Files.newOutputStream(indexTmp), 1 << 20);
+            addIndex();
+        }
+
+        private void addIndex() throws IOException{
+            indexEntry.clear();
+            indexEntry.putLong(genotypesLen).putLong(sitesLen);
+            index.write(indexEntry.array());
+        }
+
+        /**
+         * Close the temp files after the last site, before appending them.
+         */
+        void finish() throws IOException{
+            sites.close();
+            index.close();
+        }
+
+        @Override
+        public void close() throws IOException{
+            finish(); //closing again is a no-op.
+        }
+
+        void add(VcfRecord rec, int colStart, OutputStream os) throws IOException{
+            if (nSites == Integer.MAX_VALUE - 1) {
+                throw new IOException("ERROR: too many sites for genotype cache.");
+            }
+            fmt.parse(rec);
+            Arrays.fill(codes, 0L);
+            record.clear();
+            record.position(8 + codeWords * 8);
+            int nExceptions = 0;
+            for (int i = 0; i < nSamples; i++) {
+                int c = colStart + i;
+                int st = 0, dp = ABSENT, gq = ABSENT;
+                int b = -1, e = -1;
+                if (c < rec.nCols) {
+                    st = GenotypeBits.decodeSample(rec, c, fmt);
+                    b = fmt.gt > 0 ? FormatFields.subFieldStart(rec, c, fmt.gt) : -1;
+                    if (b < 0) {
+                        b = rec.start[c];
+                    }
+                    e = FormatFields.subFieldEnd(rec, c, b);
+                    dp = intValue(rec, c, fmt.dp);
+                    gq = intValue(rec, c, fmt.gq);
+                }
+                int code = st == (GenotypeBits.NON_MISSING | GenotypeBits.REF) ? 1
+                        : st == (GenotypeBits.NON_MISSING | GenotypeBits.ALT) ? 2
+                        : st == (GenotypeBits.NON_MISSING | GenotypeBits.ALT | GenotypeBits.ALT_HOM) ? 3 : 0;
+                codes[i >>> 5] |= (long) code << ((i & 31) * 2);
+                if ((code == 0 && st != 0) || !same(GT_OF_CODE[code], rec.buf, b, e)) {
+                    String gt = b < 0 ? "." : new String(rec.buf, b, e - b, StandardCharsets.ISO_8859_1);
+                    record.putLong((long) i << 32 | (long) st << 16 | gtCode(gt));
+                    nExceptions++;
+                }
+                dps[i] = dp;
+                gqs[i] = gq;
+            }
+            int dpWidth = width(dps);
+            int gqWidth = width(gqs);
+            putValues(dps, dpWidth);
+            putValues(gqs, gqWidth);
+            record.putLong(0, nExceptions | (long) dpWidth << 32 | (long) gqWidth << 40);
+            for (int k = 0; k < codeWords; k++) {
+                record.putLong(8 + k * 8, codes[k]);
+            }
+            os.write(record.array(), 0, record.position());
+            genotypesLen += record.position();
+
+            site.setLength(0);
+            for (int c = 0; c < 5 && c < rec.nCols; c++) {
+                if (c > 0) {
+                    site.append('\t');
+                }
+                site.append(rec.buf, rec.start[c], rec.end[c]);
+            }
+            site.writeTo(sites);
+            sitesLen += site.length();
+            addIndex();
+            nSites++;
+        }
+
+        /**
+         * Whether buf[from, to) is the GT string gt.
+         */
+        private static boolean same(byte[] gt, byte[] buf, int from, int to){
+            if (to - from != gt.length) {
+                return false;
+            }
+            for (int i = 0; i < gt.length; i++) {
+                if (buf[from + i] != gt[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Smallest width in bytes holding the values and ABSENT/MISSING, 0 if all ABSENT.
+         */
+        private static int width(int[] vs){
+            int max = ABSENT;
+            for (int v : vs) {
+                max = Math.max(max, v);
+            }
+            return max == ABSENT ? 0 : max < 0xFE ? 1 : max < 0xFFFE ? 2 : 4;
+        }
+
+        /**
+         * Put the values in width bytes each, 0xFF.. for ABSENT and 0xFE.. for MISSING, padded to 8 bytes.
+         */
+        private void putValues(int[] vs, int width){
+            for (int v : vs) {
+                switch (width) {
+                    case 1:
+                        record.put((byte) (v == ABSENT ? 0xFF : v == MISSING ? 0xFE : v));
+                        break;
+                    case 2:
+                        record.putChar((char) (v == ABSENT ? 0xFFFF : v == MISSING ? 0xFFFE : v));
+                        break;
+                    case 4:
+                        record.putInt(v);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            record.position(align(record.position()));
+        }
+
+        private int gtCode(String gt) throws IOException{
+            Integer code = gtCodes.get(gt);
+            if (code == null) {
+                code = gtList.size();
+                if (code > 0xFFFF) {
+                    throw new IOException("ERROR: too many distinct GT strings for genotype cache.");
+                }
+                gtCodes.put(gt, code);
+                gtList.add(gt);
+            }
+            return code;
+        }
+
+        /**
+         * Integer value of the k-th sub-field, clamped to Integer.MAX_VALUE.
+         * @return ABSENT or MISSING if not an integer.
+         */
+        private static int intValue(VcfRecord rec, int col, int k){
+            int b = k >= 0 ? FormatFields.subFieldStart(rec, col, k) : -1;
+            if (b < 0) {
+                return ABSENT;
+            }
+            int e = FormatFields.subFieldEnd(rec, col, b);
+            if (b == e || rec.buf[b] < '0' || rec.buf[b] > '9') {
+                return MISSING;
+            }
+            long v = 0;
+            for (int i = b; i < e && rec.buf[i] >= '0' && rec.buf[i] <= '9'; i++) {
+                v = Math.min(Integer.MAX_VALUE, v * 10 + (rec.buf[i] - '0'));
+            }
+            return (int) v;
+        }
+    }
+}
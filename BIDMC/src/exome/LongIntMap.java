@@ -0,0 +1,163 @@
+package exome;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from long to int, without boxing.
+ * Linear probing, removal by shifting back the following entries.
+ * Not thread safe, read only maps can be shared after built.
+ */
+final class LongIntMap {
+    private final int noValue; //returned for absent keys.
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size = 0;
+    //key 0 marks empty slots, kept aside.
+    private boolean hasZero = false;
+    private int zeroValue;
+
+    LongIntMap(int expected, int noValue) {
+        this.noValue = noValue;
+        int cap = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+        keys = new long[cap];
+        values = new int[cap];
+        mask = cap - 1;
+    }
+
+    private static int mix(long key){
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    int size(){
+        return size + (hasZero ? 1 : 0);
+    }
+
+    int get(long key){
+        if (key == 0) {
+            return hasZero ? zeroValue : noValue;
+        }
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+            if (keys[i] == 0) {
+                return noValue;
+            }
+        }
+    }
+
+    boolean containsKey(long key){
+        if (key == 0) {
+            return hasZero;
+        }
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return true;
+            }
+            if (keys[i] == 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return previous value, or noValue if absent.
+     */
+    int put(long key, int value){
+        if (key == 0) {
+            int old = hasZero ? zeroValue : noValue;
+            hasZero = true;
+            zeroValue = value;
+            return old;
+        }
+        int i = mix(key) & mask;
+        for (; keys[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                int old = values[i];
+                values[i] = value;
+                return old;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return noValue;
+    }
+
+    /**
+     * Add delta to the value of key, starting from 0 if absent.
+     * @return new value.
+     */
+    int addTo(long key, int delta){
+        int v = get(key);
+        v = (v == noValue && !containsKey(key) ? 0 : v) + delta;
+        put(key, v);
+        return v;
+    }
+
+    /**
+     * @return removed value, or noValue if absent.
+     */
+    int remove(long key){
+        if (key == 0) {
+            int old = hasZero ? zeroValue : noValue;
+            hasZero = false;
+            return old;
+        }
+        int i = mix(key) & mask;
+        for (; keys[i] != key; i = (i + 1) & mask) {
+            if (keys[i] == 0) {
+                return noValue;
+            }
+        }
+        int old = values[i];
+        //shift back the following entries of the probe chain.
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (keys[j] == 0) {
+                break;
+            }
+            int home = mix(keys[j]) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = 0;
+        size--;
+        return old;
+    }
+
+    /**
+     * Remove all entries, the capacity is kept.
+     */
+    void clear(){
+        Arrays.fill(keys, 0L);
+        size = 0;
+        hasZero = false;
+    }
+
+    private void rehash(int cap){
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[cap];
+        values = new int[cap];
+        mask = cap - 1;
+        for (int k = 0; k < oldKeys.length; k++) {
+            if (oldKeys[k] != 0) {
+                int i = mix(oldKeys[k]) & mask;
+                while (keys[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[k];
+                values[i] = oldValues[k];
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package exome;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of long, without boxing.
+ */
+final class LongList {
+    private long[] a = new long[4];
+    private int n = 0;
+
+    void add(long v){
+        if (n == a.length) {
+            a = Arrays.copyOf(a, n * 2);
+        }
+        a[n++] = v;
+    }
+
+    int size(){
+        return n;
+    }
+
+    long[] toArray(){
+        return Arrays.copyOf(a, n);
+    }
+}
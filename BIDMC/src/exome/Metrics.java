@@ -0,0 +1,223 @@
+package exome;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counters and stage timers of a run (-metrics, -metricsout).
+ * Each thread counts in its own Local, without synchronization, the
+ * report sums all Locals, so periodic reports are approximate, the final
+ * report is exact once all batches are done.
+ * The peak heap is the maximum of the used heap sampled during the run.
+ */
+final class Metrics {
+    //stages, time in nanoseconds summed over threads.
+    static final int PARSE = 0;    //tokenize line, decode genotypes.
+    static final int CONTROL = 1;  //control checking, incl. control first rejection.
+    static final int FAMILY = 2;   //scan case families.
+    static final int FORMAT = 3;   //format output lines.
+    static final int COM_CHECK = 4; //check genes of compound hetero. model.
+    static final String[] STAGES = {"parse", "control", "family", "format", "com_check"};
+
+    //sites rejected or kept by each filter.
+    static final int SCREEN_REJECTED = 0;
+    static final int DOM_CONTROL = 1;
+    static final int DOM_NO_FAMILY = 2;
+    static final int DOM_MAX_FAMILIES = 3;
+    static final int DOM_KEPT = 4;
+    static final int REC_CONTROL = 5;
+    static final int REC_NO_FAMILY = 6;
+    static final int REC_KEPT = 7;
+    static final int COM_NO_GENE = 8;
+    static final int COM_NO_FAMILY = 9;
+    static final int COM_KEPT = 10;
+    static final int ESHARE_KEPT = 11;
+    static final int COM_GENES = 12;
+    static final String[] COUNTS = {"screen_rejected", "dom_control_rejected", "dom_no_family", "dom_max_families",
+        "dom_kept", "rec_control_rejected", "rec_no_family", "rec_kept", "com_not_in_gene", "com_no_family",
+        "com_kept", "eshare_kept", "com_genes_checked"};
+
+    //candidate family histograms, bin k: [2^k, 2^(k+1)) families, the last bin is over -m.
+    static final int DOM = 0;
+    static final int REC = 1;
+    static final int HIST_BINS = 17;
+
+    /**
+     * Counters of one thread.
+     */
+    static final class Local {
+        long lines = 0;
+        long bytes = 0;
+        final long[] nanos = new long[STAGES.length];
+        final long[] counts = new long[COUNTS.length];
+        final long[][] families = new long[2][HIST_BINS + 1];
+
+        /**
+         * Add the time since t0 to a stage.
+         * @return now, start of the next stage.
+         */
+        long lap(int stage, long t0){
+            long t = System.nanoTime();
+            nanos[stage] += t - t0;
+            return t;
+        }
+
+        /**
+         * Count a site with n candidate families, n < 0 for over the maximum.
+         */
+        void families(int model, int n){
+            families[model][n < 0 ? HIST_BINS : Math.min(HIST_BINS - 1, 31 - Integer.numberOfLeadingZeros(n))]++;
+        }
+    }
+
+    private final List<Local> locals = new CopyOnWriteArrayList<>();
+    final ThreadLocal<Local> local = ThreadLocal.withInitial(() -> {
+        Local l = new Local();
+        locals.add(l);
+        return l;
+    });
+    private volatile long start = System.nanoTime(); //reset by start(), rates do not count loading.
+    private ScheduledExecutorService reporter = null;
+    private static final int SAMPLE_MS = 100; //heap sampling interval.
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private volatile long peakHeap = 0;
+
+    /**
+     * Start the clock of the run, sample the heap, and report to stderr every 'seconds'.
+     * @param seconds 0 for no periodic report.
+     */
+    void start(int seconds){
+        start = System.nanoTime();
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(this::sampleHeap, 0, SAMPLE_MS, TimeUnit.MILLISECONDS);
+        if (seconds > 0) {
+            reporter.scheduleAtFixedRate(() -> System.err.println(progress()), seconds, seconds, TimeUnit.SECONDS);
+        }
+    }
+
+    void stop(){
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+        sampleHeap();
+    }
+
+    private synchronized void sampleHeap(){
+        long used = memory.getHeapMemoryUsage().getUsed();
+        if (used > peakHeap) {
+            peakHeap = used;
+        }
+    }
+
+    private Local sum(){
+        Local s = new Local();
+        for (Local l : locals) {
+            s.lines += l.lines;
+            s.bytes += l.bytes;
+            for (int i = 0; i < s.nanos.length; i++) {
+                s.nanos[i] += l.nanos[i];
+            }
+            for (int i = 0; i < s.counts.length; i++) {
+                s.counts[i] += l.counts[i];
+            }
+            for (int m = 0; m < s.families.length; m++) {
+                for (int i = 0; i < s.families[m].length; i++) {
+                    s.families[m][i] += l.families[m][i];
+                }
+            }
+        }
+        return s;
+    }
+
+    private double elapsed(){
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    /**
+     * One line progress report.
+     * @return
+     */
+    String progress(){
+        Local s = sum();
+        double t = elapsed();
+        return String.format(Locale.ROOT, "[metrics] %.1fs, %d lines (%.0f lines/s, %.1f MB/s), peak heap %.1f MB",
+                t, s.lines, s.lines / t, s.bytes / t / 1e6, peakHeap / 1e6);
+    }
+
+    /**
+     * Final report, stage times and filters.
+     * @return
+     */
+    String summary(){
+        Local s = sum();
+        StringBuilder sb = new StringBuilder(progress());
+        long total = 0;
+        for (long n : s.nanos) {
+            total += n;
+        }
+        sb.append("\n[metrics] cpu time by stage:");
+        for (int i = 0; i < STAGES.length; i++) {
+            sb.append(String.format(Locale.ROOT, " %s %.2fs (%.1f%%)", STAGES[i], s.nanos[i] / 1e9, total == 0 ? 0 : s.nanos[i] * 100.0 / total));
+        }
+        sb.append("\n[metrics] sites:");
+        for (int i = 0; i < COUNTS.length; i++) {
+            if (s.counts[i] > 0) {
+                sb.append(' ').append(COUNTS[i]).append(' ').append(s.counts[i]);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write the final report as JSON.
+     * @param file
+     * @param threads
+     * @throws IOException
+     */
+    void writeJson(String file, int threads) throws IOException{
+        Local s = sum();
+        double t = elapsed();
+        StringBuilder sb = new StringBuilder("{\n");
+        sb.append(String.format(Locale.ROOT, "  \"elapsed_sec\": %.3f,\n", t));
+        sb.append("  \"threads\": ").append(threads).append(",\n");
+        sb.append("  \"lines\": ").append(s.lines).append(",\n");
+        sb.append("  \"bytes\": ").append(s.bytes).append(",\n");
+        sb.append(String.format(Locale.ROOT, "  \"lines_per_sec\": %.1f,\n", s.lines / t));
+        sb.append(String.format(Locale.ROOT, "  \"bytes_per_sec\": %.1f,\n", s.bytes / t));
+        sb.append("  \"stage_sec\": {");
+        for (int i = 0; i < STAGES.length; i++) {
+            sb.append(i == 0 ? "" : ", ").append(String.format(Locale.ROOT, "\"%s\": %.4f", STAGES[i], s.nanos[i] / 1e9));
+        }
+        sb.append("},\n  \"sites\": {");
+        for (int i = 0; i < COUNTS.length; i++) {
+            sb.append(i == 0 ? "" : ", ").append('"').append(COUNTS[i]).append("\": ").append(s.counts[i]);
+        }
+        sb.append("},\n  \"candidate_families\": {");
+        String[] models = {"dom", "rec"};
+        for (int m = 0; m < models.length; m++) {
+            sb.append(m == 0 ? "" : ", ").append('"').append(models[m]).append("\": {");
+            for (int i = 0; i <= HIST_BINS; i++) {
+                String bin = i == HIST_BINS ? ">max" : i == HIST_BINS - 1 ? (1 << i) + "+"
+                        : i == 0 ? "1" : (1 << i) + "-" + ((1 << (i + 1)) - 1);
+                sb.append(i == 0 ? "" : ", ").append('"').append(bin).append("\": ").append(s.families[m][i]);
+            }
+            sb.append('}');
+        }
+        sb.append("},\n  \"peak_heap_bytes\": ").append(peakHeap).append("\n}\n");
+        Files.write(Paths.get(file), sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
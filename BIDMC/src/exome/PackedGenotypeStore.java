@@ -0,0 +1,313 @@
+package exome;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Variant store for the compound heterozygous model.
+ * Genotypes are packed in 2 bits per individual:
+ *      00 missing, 01 ref (00 or 0|.), 10 het, 11 alt homo.
+ * The side table keeps the formatted genotype of the families which
+ * share the alt. allele at this site, the only families can be output.
+ * Variants are appended by the writer thread only, and can be released
+ * from the head of the store once no gene needs them (streaming mode).
+ * Packed genotypes are kept out of the java heap, in direct buffers up to
+ * the memory budget, then in a memory mapped temp file. Buffers of released
+ * chunks are reused.
+ */
+final class PackedGenotypeStore {
+    private static final int CHUNK_WORDS = 1 << 20;
+
+    /**
+     * A fixed number of variants, released as a whole.
+     */
+    private static final class Chunk {
+        final LongBuffer words;  //off heap.
+        final long[] keys;       //VariantKeys
+        final int[] pos;
+        final boolean[] onXY;
+        final int[][] famIdx;    //side table, sorted family index.
+        final String[][] famGeno; //side table, genotype of each family.
+        final int[] pending;     //number of genes not checked yet, streaming mode.
+
+        Chunk(int n, LongBuffer words) {
+            this.words = words;
+            keys = new long[n];
+            pos = new int[n];
+            onXY = new boolean[n];
+            famIdx = new int[n][];
+            famGeno = new String[n][];
+            pending = new int[n];
+        }
+    }
+
+    final int nSamples;
+    final int wordsPerVariant;
+    private final int variantsPerChunk;
+    private Chunk[] chunks = new Chunk[16];
+
+    private int size = 0;
+    private int first = 0; //variants before 'first' were released.
+
+    private final long memBudget; //bytes of direct buffers.
+    private long direct = 0;
+    private final ArrayDeque<LongBuffer> free = new ArrayDeque<>(); //buffers of released chunks.
+    private FileChannel spill = null; //temp file for chunks over the budget.
+    private Path spillFile = null;    //still linked, deleted on close.
+    private long spillSize = 0;
+
+    /**
+     * @param nSamples
+     * @param memBudget bytes of off heap memory for packed genotypes, then use a temp file.
+     */
+    PackedGenotypeStore(int nSamples, long memBudget) {
+        this.nSamples = nSamples;
+        this.memBudget = memBudget;
+        wordsPerVariant = Math.max(1, (nSamples * 2 + 63) >>> 6);
+        variantsPerChunk = Math.max(1, Math.min(1 << 16, CHUNK_WORDS / wordsPerVariant));
+    }
+
+    /**
+     * Buffer for the packed genotypes of a new chunk.
+     * @throws IOException if the temp file can not be mapped.
+     */
+    private LongBuffer newWords() throws IOException{
+        LongBuffer b = free.poll();
+        if (b != null) {
+            return b;
+        }
+        long bytes = (long) variantsPerChunk * wordsPerVariant * 8;
+        if (direct + bytes <= memBudget) {
+            direct += bytes;
+            return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+        try {
+            if (spill == null) {
+                Path f = Files.createTempFile("exome-com", ".bin");
+                spill = new RandomAccessFile(f.toFile(), "rw").getChannel();
+                System.err.println("Warnning: compound hetero. variants exceed the memory budget (-membudget), use temp file: " + f);
+                try {
+                    Files.delete(f); //unlink now, the open channel keeps the data.
+                } catch (IOException e) {
+                    spillFile = f; //eg. open files can not be deleted on windows.
+                    f.toFile().deleteOnExit();
+                }
+            }
+            b = spill.map(FileChannel.MapMode.READ_WRITE, spillSize, bytes).order(ByteOrder.nativeOrder()).asLongBuffer();
+            spillSize += bytes;
+            return b;
+        } catch (IOException e) {
+            throw new IOException("ERROR: can not map temp file for compound hetero. variants, " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Pack the genotypes of one site, 32 individuals per long.
+     * @param g
+     * @return
+     */
+    static long[] pack(GenotypeBits g){
+        long[] re = new long[Math.max(1, (g.nSamples * 2 + 63) >>> 6)];
+        for (int w = 0; w < g.nonMissing.length; w++) {
+            long hi = g.alt[w];
+            long lo = g.nonMissing[w] & ~(g.alt[w] & ~g.altHom[w]);
+            re[2*w] = spread((int) hi) << 1 | spread((int) lo);
+            if (2*w + 1 < re.length) {
+                re[2*w+1] = spread((int) (hi >>> 32)) << 1 | spread((int) (lo >>> 32));
+            }
+        }
+        return re;
+    }
+
+    /**
+     * Unpack genotypes of one site, words[off, off + wordsPerVariant).
+     * @param words
+     * @param off
+     * @param g
+     */
+    static void unpack(LongBuffer words, int off, GenotypeBits g){
+        for (int w = 0; w < g.nonMissing.length; w++) {
+            long p0 = words.get(off + 2*w);
+            long p1 = 2*w + 1 < (g.nSamples * 2 + 63) >>> 6 ? words.get(off + 2*w + 1) : 0L;
+            long hi = (compact(p0 >>> 1) & 0xFFFFFFFFL) | (compact(p1 >>> 1) << 32);
+            long lo = (compact(p0) & 0xFFFFFFFFL) | (compact(p1) << 32);
+            g.nonMissing[w] = hi | lo;
+            g.alt[w] = hi;
+            g.altHom[w] = hi & lo;
+            g.ref[w] = lo & ~hi;
+        }
+    }
+
+    /**
+     * Spread 32 bits to the even bits of a long.
+     */
+    private static long spread(int v){
+        long x = v & 0xFFFFFFFFL;
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x << 8))  & 0x00FF00FF00FF00FFL;
+        x = (x | (x << 4))  & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x << 2))  & 0x3333333333333333L;
+        x = (x | (x << 1))  & 0x5555555555555555L;
+        return x;
+    }
+
+    /**
+     * Inverse of spread, collect the even bits of a long.
+     */
+    static long compact(long x){
+        x &= 0x5555555555555555L;
+        x = (x | (x >>> 1))  & 0x3333333333333333L;
+        x = (x | (x >>> 2))  & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x >>> 4))  & 0x00FF00FF00FF00FFL;
+        x = (x | (x >>> 8))  & 0x0000FFFF0000FFFFL;
+        x = (x | (x >>> 16)) & 0x00000000FFFFFFFFL;
+        return x;
+    }
+
+    /**
+     * Append one site.
+     * @param key packed variant key, VariantKeys.
+     * @param position
+     * @param xy site on chromosome X or Y.
+     * @param packed from pack().
+     * @param fams sorted family index for the side table.
+     * @param genos genotype of each family in 'fams'.
+     * @param nGenes number of genes need this site, only for streaming mode.
+     * @return variant index.
+     * @throws IOException 
+     */
+    int add(long key, int position, boolean xy, long[] packed, int[] fams, String[] genos, int nGenes) throws IOException{
+        int c = size / variantsPerChunk;
+        if (c == chunks.length) {
+            chunks = Arrays.copyOf(chunks, c * 2);
+        }
+        if (chunks[c] == null) {
+            chunks[c] = new Chunk(variantsPerChunk, newWords());
+        }
+        Chunk ch = chunks[c];
+        int i = size % variantsPerChunk;
+        for (int k = 0; k < wordsPerVariant; k++) {
+            ch.words.put(i * wordsPerVariant + k, packed[k]);
+        }
+        ch.keys[i] = key;
+        ch.pos[i] = position;
+        ch.onXY[i] = xy;
+        ch.famIdx[i] = fams;
+        ch.famGeno[i] = genos;
+        ch.pending[i] = nGenes;
+        return size++;
+    }
+
+    /**
+     * Total number of variants added, including released ones.
+     * @return
+     */
+    int size(){
+        return size;
+    }
+
+    long key(int v){
+        return chunks[v / variantsPerChunk].keys[v % variantsPerChunk];
+    }
+
+    int pos(int v){
+        return chunks[v / variantsPerChunk].pos[v % variantsPerChunk];
+    }
+
+    boolean onXY(int v){
+        return chunks[v / variantsPerChunk].onXY[v % variantsPerChunk];
+    }
+
+    /**
+     * Decode the genotypes of variant v.
+     * @param v
+     * @param g
+     */
+    void genotypes(int v, GenotypeBits g){
+        unpack(chunks[v / variantsPerChunk].words, (v % variantsPerChunk) * wordsPerVariant, g);
+    }
+
+    /**
+     * Formatted genotype of family f at variant v, null if not in the side table.
+     * @param v
+     * @param f
+     * @return
+     */
+    String familyGenotype(int v, int f){
+        Chunk ch = chunks[v / variantsPerChunk];
+        int i = Arrays.binarySearch(ch.famIdx[v % variantsPerChunk], f);
+        return i >= 0 ? ch.famGeno[v % variantsPerChunk][i] : null;
+    }
+
+    /**
+     * One gene using variant v has been checked.
+     * @param v
+     * @return number of genes still need this variant.
+     */
+    int done(int v){
+        return --chunks[v / variantsPerChunk].pending[v % variantsPerChunk];
+    }
+
+    /**
+     * Variant v is not needed any more, eg. a duplicated site.
+     * @param v
+     */
+    void release(int v){
+        chunks[v / variantsPerChunk].pending[v % variantsPerChunk] = 0;
+    }
+
+    /**
+     * Release whole chunks from the head of the store, until a variant still needed.
+     */
+    void releaseDone(){
+        while (first < size) {
+            Chunk ch = chunks[first / variantsPerChunk];
+            if (ch.pending[first % variantsPerChunk] > 0) {
+                break;
+            }
+            first++;
+            if (first % variantsPerChunk == 0) {
+                free.add(chunks[first / variantsPerChunk - 1].words);
+                chunks[first / variantsPerChunk - 1] = null;
+            }
+        }
+    }
+
+    /**
+     * Close the temp file, direct buffers are freed with the store.
+     */
+    void close(){
+        free.clear();
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                System.err.println("Warnning: can not close temp file for compound hetero. variants, " + e.getMessage());
+            }
+            spill = null;
+        }
+        if (spillFile != null) {
+            try {
+                Files.deleteIfExists(spillFile);
+            } catch (IOException e) {
+                System.err.println("Warnning: can not delete temp file for compound hetero. variants, " + e.getMessage());
+            }
+            spillFile = null;
+        }
+    }
+
+    /**
+     * @return true if chunks over the memory budget were mapped to a temp file.
+     */
+    boolean spilled(){
+        return spill != null;
+    }
+}
@@ -0,0 +1,244 @@
+package exome;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Vcf lines in a set of regions from a bgzip compressed and tabix indexed vcf.
+ * The header lines are returned first, then the lines overlapping the regions,
+ * in the contig order of the index. Each line is returned once, regions are
+ * sorted and merged, and a line before or at the last returned one (by virtual
+ * offset) is skipped, eg. a deletion overlapping two adjacent regions.
+ * For a shard of the genome, the header is skipped and a line is only in the
+ * region of its POS, so a deletion crossing two shards is read once.
+ */
+final class RegionInputStream extends InputStream {
+    private final BgzfInputStream in;
+    private final TabixIndex index;
+    private final List<TabixIndex.Region> regions;
+    private int nextRegion = 0;
+    private TabixIndex.Region cur = null; //null: reading header.
+    private final boolean byStart; //line is in a region by POS only, not overlapping by REF.
+
+    private byte[] line = new byte[1 << 12]; //current line, with '\n'.
+    private int lineLen = 0;
+    private int linePos = 0;
+    private long lineStart = -1; //virtual offset of the current line.
+    private long lastLine = -1; //virtual offset of the last returned data line.
+    private boolean eof = false;
+
+    RegionInputStream(BgzfInputStream in, TabixIndex index, List<TabixIndex.Region> regions) {
+        this.in = in;
+        this.index = index;
+        this.regions = merge(index, regions);
+        this.byStart = false;
+    }
+
+    /**
+     * Lines of one shard, without the header.
+     * @param in
+     * @param index
+     * @param shard
+     * @throws IOException
+     */
+    RegionInputStream(BgzfInputStream in, TabixIndex index, TabixIndex.Region shard) throws IOException {
+        this.in = in;
+        this.index = index;
+        this.regions = Arrays.asList(shard);
+        this.byStart = true;
+        seekNextRegion();
+    }
+
+    /**
+     * Sort regions in the contig order of the index, and merge overlapped ones.
+     */
+    private static List<TabixIndex.Region> merge(TabixIndex index, List<TabixIndex.Region> regions){
+        List<TabixIndex.Region> rs = new ArrayList<>();
+        for (TabixIndex.Region r : regions) {
+            if (index.tid(r.contig) < 0) {
+                System.err.println("Warnning: no record for contig in tabix index, skip region: " + r.contig + ":" + r.beg + "-" + r.end);
+            }else{
+                rs.add(r);
+            }
+        }
+        rs.sort((a, b) -> a.contig.equals(b.contig) ? Integer.compare(a.beg, b.beg)
+                : Integer.compare(index.tid(a.contig), index.tid(b.contig)));
+        List<TabixIndex.Region> re = new ArrayList<>();
+        for (TabixIndex.Region r : rs) {
+            TabixIndex.Region last = re.isEmpty() ? null : re.get(re.size() - 1);
+            if (last != null && last.contig.equals(r.contig) && r.beg <= last.end) {
+                re.set(re.size() - 1, new TabixIndex.Region(r.contig, last.beg, Math.max(last.end, r.end)));
+            }else{
+                re.add(r);
+            }
+        }
+        return re;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (linePos == lineLen && !nextLine()) {
+            return -1;
+        }
+        return line[linePos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (linePos == lineLen && !nextLine()) {
+            return -1;
+        }
+        int n = Math.min(len, lineLen - linePos);
+        System.arraycopy(line, linePos, b, off, n);
+        linePos += n;
+        return n;
+    }
+
+    /**
+     * Move to the next header line or the next line in regions.
+     * @return false if no more line.
+     */
+    private boolean nextLine() throws IOException{
+        while (true) {
+            if (cur == null) { //header.
+                if (readRawLine() && line[0] == '#') {
+                    return true;
+                }
+                if (!seekNextRegion()) {
+                    return false;
+                }
+                continue;
+            }
+            if (!readRawLine()) {
+                if (!seekNextRegion()) {
+                    return false;
+                }
+                continue;
+            }
+            //CHROM, POS and REF of this line.
+            int t1 = indexOf(line, 0, '\t');
+            int t2 = t1 < 0 ? -1 : indexOf(line, t1 + 1, '\t');
+            int t3 = t2 < 0 ? -1 : indexOf(line, t2 + 1, '\t');
+            int t4 = t3 < 0 ? -1 : indexOf(line, t3 + 1, '\t');
+            if (t4 < 0) {
+                continue;
+            }
+            if (!sameContig(t1)) {
+                if (!seekNextRegion()) {
+                    return false;
+                }
+                continue;
+            }
+            int pos = parseInt(line, t1 + 1, t2);
+            if (pos > cur.end) {
+                if (!seekNextRegion()) {
+                    return false;
+                }
+                continue;
+            }
+            if (byStart ? pos >= cur.beg : pos + (t4 - t3 - 1) - 1 >= cur.beg) { //overlap by REF.
+                if (lineStart <= lastLine) { //returned in the previous region.
+                    continue;
+                }
+                lastLine = lineStart;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Seek to the start of the next region with records.
+     * @return false if no more region.
+     */
+    private boolean seekNextRegion() throws IOException{
+        while (nextRegion < regions.size()) {
+            cur = regions.get(nextRegion++);
+            long off = index.startOffset(cur);
+            if (off >= 0) {
+                in.seek(off);
+                eof = false;
+                return true;
+            }
+        }
+        eof = true;
+        return false;
+    }
+
+    /**
+     * Read one line into line[], ended by '\n', copied from the inflated blocks.
+     * @return false if end of file.
+     */
+    private boolean readRawLine() throws IOException{
+        lineLen = linePos = 0;
+        if (eof) {
+            return false;
+        }
+        lineStart = in.tell();
+        int n;
+        while (true) {
+            if (lineLen == line.length) {
+                line = Arrays.copyOf(line, line.length * 2);
+            }
+            if ((n = in.readLine(line, lineLen, line.length - lineLen)) < 0) {
+                break;
+            }
+            lineLen += n;
+            if (line[lineLen - 1] == '\n') {
+                return true;
+            }
+        }
+        eof = true;
+        if (lineLen == 0) {
+            return false;
+        }
+        if (lineLen == line.length) {
+            line = Arrays.copyOf(line, line.length + 1);
+        }
+        line[lineLen++] = '\n';
+        return true;
+    }
+
+    private boolean sameContig(int end){
+        String c = cur.contig;
+        if (end != c.length()) {
+            return false;
+        }
+        for (int i = 0; i < end; i++) {
+            if (line[i] != c.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] b, int from, char c){
+        for (int i = from; i < b.length; i++) {
+            if (b[i] == c) {
+                return i;
+            }
+            if (b[i] == '\n') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static int parseInt(byte[] b, int from, int to){
+        int re = 0;
+        for (int i = from; i < to; i++) {
+            re = re * 10 + (b[i] - '0');
+        }
+        return re;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,494 @@
+package exome;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Synthetic cohort for load testing of ExomeModelFilterV2, without patient data.
+ * Writes prefix.ped, prefix.vcf (or stdout by -stdout) and prefix.anno.txt, the gene
+ * annotation in the format of -a, vcf lines are generated and written one by one.
+ *
+ * Families: two parents (founders) and children for family size >= 3, each member is
+ * affected by a fraction, at least one per family. Other samples are unrelated controls.
+ * Sites: allele frequency drawn log-uniformly in [minaf, maxaf], so rare sites dominate,
+ * sorted on chr1-chr22, chrX and chrY, male X and Y calls are haploid, female Y calls missing.
+ * Each line is copied from a template of ref calls of its contig class, alt. alleles of founders
+ * are placed by geometric skips, each child gets one allele of each parent, then missing calls
+ * are placed, generation is linear in samples plus carriers.
+ * A fraction of autosomal sites (-carriers) is private to the affected of one family instead,
+ * by turns as the dominant, recessive and compound hetero. models expect, so all of them have output.
+ */
+public class SyntheticCohortGenerator {
+    private static final String[] BASES = {"A", "C", "G", "T"};
+    private static final int MEAN_GAP = 100; //mean distance of two sites, bp.
+
+    private static int nSamples = 1000;
+    private static int nFamilies = -1; //default nSamples / (2 * famSize).
+    private static int famSize = 4;
+    private static double affected = 0.5; //fraction of affected family members.
+    private static double male = 0.5;     //fraction of males, for children and controls.
+    private static int nSites = 10000;
+    private static double minAF = 0.0001;
+    private static double maxAF = 0.5;
+    private static double missing = 0.01; //fraction of missing calls.
+    private static boolean phased = false;
+    private static double xFraction = 0.04; //fraction of sites on chrX and chrY.
+    private static double yFraction = 0.01;
+    private static int geneSites = 10; //mean sites per gene.
+    private static double carriers = 0.01; //fraction of autosomal sites carried by one family.
+    private static long seed = 1;
+    private static String outPrefix = null;
+    private static boolean toStdout = false;
+
+    private static SplittableRandom rand;
+    private static byte[] sex; //1 male, 2 female, by sample.
+    private static String[] names;
+    private static boolean[] affectedSample;
+    private static int[] father; //parents of each sample, -1 for founders.
+    private static int[] mother;
+    private static int[] children; //samples with parents, in sample order.
+    private static int nPlanted = 0; //sites carried by one family.
+    private static int nModels = 0;  //models of these sites so far, the next one by turns.
+    private static int[] carried = new int[64]; //samples with an alt. allele at the current site.
+    private static int nCarried;
+
+    //models of the sites carried by one family, by turns.
+    private static final int DOM = 0;
+    private static final int REC = 1;
+    private static final int COM = 2;
+
+    /**
+     * Genotype columns of all samples, with ref calls, for one contig class.
+     */
+    private static class Template {
+        final byte contigClass;
+        final byte[] line;
+        final int[] slotOff;    //offset of each allele in line.
+        final int[] slotSample; //sample of each allele.
+        final int[] sampleSlot; //first allele of each sample, nSamples + 1.
+
+        Template(byte contigClass) {
+            this.contigClass = contigClass;
+            int nSlots = 0, len = 0;
+            for (int i = 0; i < nSamples; i++) {
+                int p = ploidy(contigClass, i);
+                nSlots += p;
+                len += p == 0 ? 2 : p * 2; //"." or "0" or "0/0", then tab or newline.
+            }
+            line = new byte[len];
+            slotOff = new int[nSlots];
+            slotSample = new int[nSlots];
+            sampleSlot = new int[nSamples + 1];
+            int o = 0, s = 0;
+            for (int i = 0; i < nSamples; i++) {
+                sampleSlot[i] = s;
+                int p = ploidy(contigClass, i);
+                if (p == 0) {
+                    line[o++] = '.';
+                }
+                for (int k = 0; k < p; k++) {
+                    if (k > 0) {
+                        line[o++] = (byte) (phased ? '|' : '/');
+                    }
+                    slotSample[s] = i;
+                    slotOff[s++] = o;
+                    line[o++] = '0';
+                }
+                line[o++] = (byte) (i == nSamples - 1 ? '\n' : '\t');
+            }
+            sampleSlot[nSamples] = s;
+        }
+    }
+
+    public static void main(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+            case "-n":
+                i++; nSamples = Integer.parseInt(args[i]);
+                break;
+            case "-families":
+                i++; nFamilies = Integer.parseInt(args[i]);
+                break;
+            case "-famsize":
+                i++; famSize = Integer.parseInt(args[i]);
+                break;
+            case "-affected":
+                i++; affected = Double.parseDouble(args[i]);
+                break;
+            case "-male":
+                i++; male = Double.parseDouble(args[i]);
+                break;
+            case "-sites":
+                i++; nSites = Integer.parseInt(args[i]);
+                break;
+            case "-minaf":
+                i++; minAF = Double.parseDouble(args[i]);
+                break;
+            case "-maxaf":
+                i++; maxAF = Double.parseDouble(args[i]);
+                break;
+            case "-missing":
+                i++; missing = Double.parseDouble(args[i]);
+                break;
+            case "-phased":
+                phased = true;
+                break;
+            case "-x":
+                i++; xFraction = Double.parseDouble(args[i]);
+                break;
+            case "-y":
+                i++; yFraction = Double.parseDouble(args[i]);
+                break;
+            case "-genesites":
+                i++; geneSites = Integer.parseInt(args[i]);
+                break;
+            case "-carriers":
+                i++; carriers = Double.parseDouble(args[i]);
+                break;
+            case "-seed":
+                i++; seed = Long.parseLong(args[i]);
+                break;
+            case "-o":
+                i++; outPrefix = args[i];
+                break;
+            case "-stdout":
+                toStdout = true;
+                break;
+            default:
+                help();
+            }
+        }
+        if (nFamilies < 0) {
+            nFamilies = nSamples / (2 * famSize);
+        }
+        if (outPrefix == null) {
+            help();
+        }
+        if (nSamples <= 0 || famSize <= 0 || geneSites <= 0 || (long) nFamilies * famSize > nSamples) {
+            System.err.println("ERROR: -families * -famsize should be no more than -n, and -n, -famsize and -genesites positive.");
+            System.exit(-1);
+        }
+        if (minAF <= 0 || minAF > maxAF || maxAF >= 1 || missing < 0 || missing >= 1
+                || affected < 0 || affected > 1 || male < 0 || male > 1 || carriers < 0 || carriers > 1
+                || xFraction < 0 || yFraction < 0 || xFraction + yFraction > 1) {
+            System.err.println("ERROR: please check the fractions, 0 < -minaf <= -maxaf < 1, 0 <= -missing < 1,"
+                    + " -affected, -male, -carriers in [0, 1], and -x + -y <= 1.");
+            System.exit(-1);
+        }
+        rand = new SplittableRandom(seed);
+        try {
+            long t = System.currentTimeMillis();
+            writePed();
+            try (OutputStream vcf = new BufferedOutputStream(toStdout ? System.out : Files.newOutputStream(Paths.get(outPrefix + ".vcf")), 1 << 20);
+                    OutputStream anno = new BufferedOutputStream(Files.newOutputStream(Paths.get(outPrefix + ".anno.txt")), 1 << 16)) {
+                writeVcf(vcf, anno);
+            }
+            System.err.println("Generated " + nSamples + " samples, " + nFamilies + " families, " + nSites + " sites ("
+                    + nPlanted + " carried by one family), in " + (System.currentTimeMillis() - t) / 1000.0 + "s.");
+        } catch (IOException e) {
+            System.err.println("ERROR: failed to write synthetic cohort: " + outPrefix);
+            e.printStackTrace();
+            System.exit(-1);
+        }
+    }
+
+    private static void help() {
+        System.out.println("--------------------------------");
+        System.out.println("Usages: SyntheticCohortGenerator -o prefix [options]"
+                + "\nparameter(-o String, required): output prefix, writes prefix.ped, prefix.vcf and prefix.anno.txt (-a format)."
+                + "\nparameter(-stdout, optional): write the vcf to stdout instead of prefix.vcf, eg. to pipe to the filter."
+                + "\nparameter(-n int, optional): number of samples, Default: 1000."
+                + "\nparameter(-families int, optional): number of families, the other samples are unrelated controls."
+                + "\n          Default: n / (2 * famsize)."
+                + "\nparameter(-famsize int, optional): members per family, two parents and children if >= 3, Default: 4."
+                + "\nparameter(-affected double, optional): fraction of affected family members, Default: 0.5."
+                + "\nparameter(-male double, optional): fraction of males for children and controls, Default: 0.5."
+                + "\nparameter(-sites int, optional): number of sites, Default: 10000."
+                + "\nparameter(-minaf double, -maxaf double, optional): range of alt. allele frequency, log-uniform,"
+                + "\n          Default: 0.0001 and 0.5."
+                + "\nparameter(-missing double, optional): fraction of missing calls, Default: 0.01."
+                + "\nparameter(-phased, optional): phased calls (0|1), Default unphased."
+                + "\nparameter(-x double, -y double, optional): fraction of sites on chrX and chrY, Default: 0.04 and 0.01."
+                + "\nparameter(-genesites int, optional): mean number of sites per gene, Default: 10."
+                + "\nparameter(-carriers double, optional): fraction of autosomal sites private to the affected of one family,"
+                + "\n          as dominant, recessive and compound hetero. models by turns, Default: 0.01."
+                + "\nparameter(-seed long, optional): random seed, Default: 1."
+                );
+        System.out.println("--------------------------------");
+        System.exit(-1);
+    }
+
+    /**
+     * Families then controls, in the sample order of the vcf.
+     * @throws IOException
+     */
+    private static void writePed() throws IOException{
+        sex = new byte[nSamples];
+        names = new String[nSamples];
+        affectedSample = new boolean[nSamples];
+        father = new int[nSamples];
+        mother = new int[nSamples];
+        Arrays.fill(father, -1);
+        Arrays.fill(mother, -1);
+        int nChildren = 0;
+        StringBuilder sb = new StringBuilder();
+        try (OutputStream ped = new BufferedOutputStream(Files.newOutputStream(Paths.get(outPrefix + ".ped")), 1 << 16)) {
+            int s = 0;
+            for (int f = 0; f < nFamilies; f++) {
+                String fam = "F" + f;
+                int first = s;
+                boolean anyAffected = false;
+                for (int k = 0; k < famSize; k++, s++) {
+                    names[s] = fam + "_" + k;
+                    boolean parent = famSize >= 3 && k < 2;
+                    sex[s] = (byte) (parent ? k + 1 : rand.nextDouble() < male ? 1 : 2);
+                    boolean aff = rand.nextDouble() < affected || (k == famSize - 1 && !anyAffected);
+                    anyAffected |= aff;
+                    affectedSample[s] = aff;
+                    if (!parent && famSize >= 3) {
+                        father[s] = first;
+                        mother[s] = first + 1;
+                        nChildren++;
+                    }
+                    sb.setLength(0);
+                    sb.append(fam).append(' ').append(names[s]).append(' ')
+                      .append(parent || famSize < 3 ? "0 0" : names[first] + " " + names[first + 1]).append(' ')
+                      .append(sex[s]).append(' ').append(aff ? 2 : 1).append('\n');
+                    ped.write(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+                }
+            }
+            for (int c = 0; s < nSamples; s++, c++) {
+                names[s] = "C" + c;
+                sex[s] = (byte) (rand.nextDouble() < male ? 1 : 2);
+                ped.write((names[s] + ' ' + names[s] + " 0 0 " + sex[s] + " 1\n").getBytes(StandardCharsets.ISO_8859_1));
+            }
+        }
+        children = new int[nChildren];
+        for (int i = 0, n = 0; i < nSamples; i++) {
+            if (father[i] >= 0) {
+                children[n++] = i;
+            }
+        }
+    }
+
+    /**
+     * Number of alleles of a sample on a contig class, 0 for female Y.
+     */
+    private static int ploidy(byte contigClass, int sample){
+        if (contigClass == ContigClass.AUTOSOME || (contigClass == ContigClass.X && sex[sample] == 2)) {
+            return 2;
+        }
+        return sex[sample] == 1 ? 1 : 0;
+    }
+
+    /**
+     * Number of trials skipped before the next success, geometric with probability p,
+     * at most Integer.MAX_VALUE.
+     */
+    private static long skip(double p){
+        if (p <= 0) {
+            return Integer.MAX_VALUE;
+        }
+        return (long) Math.min(Integer.MAX_VALUE, Math.log(1 - rand.nextDouble()) / Math.log1p(-p));
+    }
+
+    private static void writeVcf(OutputStream vcf, OutputStream anno) throws IOException{
+        ByteOutput out = new ByteOutput(1 << 12);
+        out.append("##fileformat=VCFv4.2\n");
+        for (int c = 1; c <= 22; c++) {
+            out.append("##contig=<ID=chr").append(c).append(">\n");
+        }
+        out.append("##contig=<ID=chrX>\n##contig=<ID=chrY>\n");
+        out.append("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n");
+        out.append("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+        for (String n : names) {
+            out.append('\t').append(n);
+        }
+        out.append('\n');
+        out.writeTo(vcf);
+
+        int nX = (int) (nSites * xFraction), nY = (int) (nSites * yFraction);
+        int nAuto = nSites - nX - nY;
+        Template[] templates = {new Template(ContigClass.AUTOSOME), new Template(ContigClass.X), new Template(ContigClass.Y)};
+        byte[] line = new byte[templates[0].line.length];
+        int[] gene = {0};
+        for (int c = 1; c <= 22; c++) {
+            int n = nAuto / 22 + (c <= nAuto % 22 ? 1 : 0);
+            writeContig("chr" + c, n, 100000, templates[0], line, gene, vcf, anno);
+        }
+        //out of the pseudo-autosomal regions of both builds.
+        writeContig("chrX", nX, 3000000, templates[1], line, gene, vcf, anno);
+        writeContig("chrY", nY, 3000000, templates[2], line, gene, vcf, anno);
+    }
+
+    /**
+     * Sites of one contig, sorted by position, and their gene annotation.
+     * @param gene number of genes so far.
+     */
+    private static void writeContig(String contig, int n, int pos, Template t, byte[] line, int[] gene,
+            OutputStream vcf, OutputStream anno) throws IOException{
+        ByteOutput head = new ByteOutput(256);
+        ByteOutput ann = new ByteOutput(256);
+        int geneLeft = 0; //sites left in the current gene.
+        int comFamily = -1; //family of the first site of a compound hetero. pair, its second site is next.
+        for (int v = 0; v < n; v++) {
+            pos += 1 + rand.nextInt(2 * MEAN_GAP - 1);
+            int r = rand.nextInt(4);
+            String ref = BASES[r], alt = BASES[(r + 1 + rand.nextInt(3)) % 4];
+            double af = Math.exp(Math.log(minAF) + rand.nextDouble() * (Math.log(maxAF) - Math.log(minAF)));
+            if (geneLeft == 0) {
+                gene[0]++;
+                geneLeft = 1 + rand.nextInt(2 * geneSites - 1);
+            }
+            geneLeft--;
+
+            //family carrying this site and its model, -1 for a site drawn by af.
+            int fam = -1, model = -1;
+            boolean second = false;
+            if (comFamily >= 0) {
+                fam = comFamily;
+                model = COM;
+                second = true;
+                comFamily = -1;
+            }else if (t.contigClass == ContigClass.AUTOSOME && nFamilies > 0 && rand.nextDouble() < carriers) {
+                fam = rand.nextInt(nFamilies);
+                model = nModels++ % 3;
+                if (model == COM && (geneLeft == 0 || v == n - 1)) { //no next site in this gene.
+                    model = DOM;
+                }
+                if (model == DOM && famSize >= 3 && !affectedSample[fam * famSize] && !affectedSample[fam * famSize + 1]) {
+                    model = REC; //neither parent carries a dominant allele.
+                }
+                if (model == COM) {
+                    comFamily = fam;
+                }
+            }
+
+            System.arraycopy(t.line, 0, line, 0, t.line.length);
+            nCarried = 0;
+            if (fam < 0) {
+                for (long s = skip(af); s < t.slotOff.length; s += 1 + skip(af)) {
+                    int sample = t.slotSample[(int) s];
+                    if (father[sample] < 0) { //alleles of children are inherited.
+                        line[t.slotOff[(int) s]] = '1';
+                        carry(sample);
+                    }
+                }
+                for (int c : children) {
+                    inherit(t, line, c, -1);
+                }
+            }else{
+                plant(t, line, fam, model, second);
+                nPlanted++;
+            }
+            for (long i = skip(missing); i < nSamples; i += 1 + skip(missing)) {
+                for (int s = t.sampleSlot[(int) i]; s < t.sampleSlot[(int) i + 1]; s++) {
+                    line[t.slotOff[s]] = '.';
+                }
+            }
+            boolean altHomo = false;
+            for (int k = 0; k < nCarried && !altHomo; k++) {
+                int first = t.sampleSlot[carried[k]];
+                altHomo = t.sampleSlot[carried[k] + 1] - first == 2 && line[t.slotOff[first]] == '1' && line[t.slotOff[first + 1]] == '1';
+            }
+
+            head.setLength(0);
+            head.append(contig).append('\t').append(pos).append("\t.\t").append(ref).append('\t').append(alt)
+                .append("\t.\tPASS\t.\tGT\t");
+            head.writeTo(vcf);
+            vcf.write(line, 0, t.line.length);
+
+            ann.setLength(0);
+            ann.append(contig).append('\t').append(pos).append('\t').append(ref).append('\t').append(alt)
+               .append("\tG").append(gene[0]).append('\t').append(altHomo ? 1 : 0).append('\n');
+            ann.writeTo(anno);
+        }
+    }
+
+    private static void carry(int sample){
+        if (nCarried == carried.length) {
+            carried = Arrays.copyOf(carried, nCarried * 2);
+        }
+        carried[nCarried++] = sample;
+    }
+
+    /**
+     * Alleles of a site private to family fam, on an autosome: parents carry what the
+     * model needs to pass on, each child gets alleles of the parents closest to the model,
+     * one alt. allele for the affected of dom and com, two for rec, none for the unaffected.
+     * Members of a family without parents get these alleles directly.
+     * @param second the second site of a compound hetero. pair, passed on by the mother,
+     *               the first one by the father.
+     */
+    private static void plant(Template t, byte[] line, int fam, int model, boolean second){
+        int first = fam * famSize;
+        for (int s = first; s < first + famSize; s++) {
+            int target = !affectedSample[s] ? 0 : model == REC ? 2 : 1;
+            if (father[s] >= 0) {
+                inherit(t, line, s, target);
+                continue;
+            }
+            if (famSize >= 3) { //a parent, the father is first.
+                boolean isFather = s == first;
+                if (model == REC) {
+                    target = affectedSample[s] ? 2 : 1;
+                }else if (model == DOM) {
+                    target = affectedSample[s] ? 1 : 0;
+                }else{
+                    target = affectedSample[s] || isFather != second ? 1 : 0;
+                }
+            }
+            for (int k = 0; k < target; k++) {
+                line[t.slotOff[t.sampleSlot[s] + k]] = '1';
+            }
+            if (target > 0) {
+                carry(s);
+            }
+        }
+    }
+
+    /**
+     * Alleles of a child, one of the father and one of the mother, X of males from the
+     * mother and Y from the father. Chosen at random, or closest to target alt. alleles.
+     * @param target -1 for random.
+     */
+    private static void inherit(Template t, byte[] line, int child, int target){
+        int from = t.sampleSlot[child];
+        int n = t.sampleSlot[child + 1] - from;
+        if (n == 0) {
+            return;
+        }
+        int p = n == 2 || t.contigClass == ContigClass.Y ? father[child] : mother[child];
+        int pFrom = t.sampleSlot[p], pn = t.sampleSlot[p + 1] - pFrom;
+        int q = mother[child];
+        int qFrom = t.sampleSlot[q], qn = n == 2 ? t.sampleSlot[q + 1] - qFrom : 1;
+        int a = rand.nextInt(pn), b = rand.nextInt(qn);
+        if (target >= 0) {
+            int best = Integer.MAX_VALUE, a0 = a, b0 = b;
+            for (int i = 0; i < pn; i++) {
+                for (int j = 0; j < qn; j++) {
+                    int x = (a0 + i) % pn, y = (b0 + j) % qn;
+                    int alts = (line[t.slotOff[pFrom + x]] == '1' ? 1 : 0) + (n == 2 && line[t.slotOff[qFrom + y]] == '1' ? 1 : 0);
+                    if (Math.abs(alts - target) < best) {
+                        best = Math.abs(alts - target);
+                        a = x;
+                        b = y;
+                    }
+                }
+            }
+        }
+        line[t.slotOff[from]] = line[t.slotOff[pFrom + a]];
+        if (n == 2) {
+            line[t.slotOff[from + 1]] = line[t.slotOff[qFrom + b]];
+        }
+        if (line[t.slotOff[from]] == '1' || (n == 2 && line[t.slotOff[from + 1]] == '1')) {
+            carry(child);
+        }
+    }
+}
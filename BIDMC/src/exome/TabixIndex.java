@@ -0,0 +1,240 @@
+package exome;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Tabix index (.tbi) of a bgzip compressed vcf.
+ * Only used to find the first block to read for a region, records are
+ * then read in order until passing the end of the region.
+ */
+final class TabixIndex {
+    private static final int MIN_SHIFT = 14;
+
+    /**
+     * A genomic region, 1-based and inclusive.
+     */
+    static final class Region {
+        final String contig;
+        final int beg;
+        final int end;
+
+        Region(String contig, int beg, int end) {
+            this.contig = contig;
+            this.beg = beg;
+            this.end = end;
+        }
+    }
+
+    final String[] names; //contig names, in the order of the index.
+    private final Map<String, Integer> tid = new HashMap<>();
+    private final List<Map<Integer, long[]>> bins = new ArrayList<>(); //bin -> chunks (beg, end, beg, end...), by tid.
+    private final List<long[]> linear = new ArrayList<>(); //minimal offset of each 16kb window, by tid.
+
+    TabixIndex(String file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(Files.newInputStream(Paths.get(file)), 1 << 16))) {
+            byte[] magic = new byte[4];
+            in.readFully(magic);
+            if (magic[0] != 'T' || magic[1] != 'B' || magic[2] != 'I' || magic[3] != 1) {
+                throw new IOException("ERROR: not a tabix index file: " + file);
+            }
+            int nRef = readInt(in);
+            for (int i = 0; i < 6; i++) { //format, col_seq, col_beg, col_end, meta, skip.
+                readInt(in);
+            }
+            byte[] nm = new byte[readInt(in)];
+            in.readFully(nm);
+            names = new String[nRef];
+            int k = 0;
+            for (int i = 0; i < nRef; i++) {
+                int e = k;
+                while (nm[e] != 0) {
+                    e++;
+                }
+                names[i] = new String(nm, k, e - k, StandardCharsets.ISO_8859_1);
+                tid.put(names[i], i);
+                k = e + 1;
+            }
+            for (int i = 0; i < nRef; i++) {
+                int nBin = readInt(in);
+                Map<Integer, long[]> m = new HashMap<>(nBin * 2);
+                for (int b = 0; b < nBin; b++) {
+                    int bin = readInt(in);
+                    long[] chunks = new long[readInt(in) * 2];
+                    for (int c = 0; c < chunks.length; c++) {
+                        chunks[c] = readLong(in);
+                    }
+                    m.put(bin, chunks);
+                }
+                bins.add(m);
+                long[] ioff = new long[readInt(in)];
+                for (int j = 0; j < ioff.length; j++) {
+                    ioff[j] = readLong(in);
+                }
+                linear.add(ioff);
+            }
+        }
+    }
+
+    /**
+     * Index of a contig in the index, -1 if no record on this contig.
+     * @param contig
+     * @return
+     */
+    int tid(String contig){
+        Integer i = tid.get(contig);
+        return i == null ? -1 : i;
+    }
+
+    /**
+     * Span of a contig covered by the linear index, a multiple of 16kb.
+     * @param contig
+     * @return 0 if no record on this contig.
+     */
+    int span(String contig){
+        int t = tid(contig);
+        return t < 0 ? 0 : (int) Math.min(Integer.MAX_VALUE, (long) linear.get(t).length << MIN_SHIFT);
+    }
+
+    /**
+     * Split regions into shards of at most 'size' bp, in the contig order of the index.
+     * Regions are all the contigs of the index if empty.
+     * @param regions
+     * @param size shard size, 0 for one shard per contig or region.
+     * @return
+     */
+    List<Region> shards(List<Region> regions, int size){
+        List<Region> rs = new ArrayList<>();
+        if (regions.isEmpty()) {
+            for (String n : names) {
+                rs.add(new Region(n, 1, Integer.MAX_VALUE));
+            }
+        }else{
+            for (Region r : regions) {
+                if (tid(r.contig) >= 0) {
+                    rs.add(r);
+                }
+            }
+            rs.sort((a, b) -> a.contig.equals(b.contig) ? Integer.compare(a.beg, b.beg)
+                    : Integer.compare(tid(a.contig), tid(b.contig)));
+        }
+        List<Region> re = new ArrayList<>();
+        for (Region r : rs) {
+            Region last = re.isEmpty() ? null : re.get(re.size() - 1);
+            int beg = last != null && last.contig.equals(r.contig) ? Math.max(r.beg, last.end + 1) : r.beg;
+            int end = size > 0 ? Math.min(r.end, span(r.contig)) : r.end;
+            if (size <= 0) {
+                if (beg <= end) {
+                    re.add(new Region(r.contig, beg, end));
+                }
+                continue;
+            }
+            for (long b = beg; b <= end; b += size) {
+                re.add(new Region(r.contig, (int) b, (int) Math.min(end, b + size - 1)));
+            }
+        }
+        return re;
+    }
+
+    /**
+     * Virtual offset to start reading for a region.
+     * @param r
+     * @return -1 if no record overlaps the region.
+     */
+    long startOffset(Region r){
+        int t = tid(r.contig);
+        if (t < 0) {
+            return -1;
+        }
+        int beg = Math.max(0, r.beg - 1);
+        int end = Math.min(1 << 29, r.end); //0-based, half open.
+        long[] ioff = linear.get(t);
+        long minOff = ioff.length == 0 ? 0 : ioff[Math.min(beg >> MIN_SHIFT, ioff.length - 1)];
+        long re = -1;
+        Map<Integer, long[]> m = bins.get(t);
+        for (int bin : reg2bins(beg, end)) {
+            long[] chunks = m.get(bin);
+            if (chunks == null) {
+                continue;
+            }
+            for (int c = 0; c < chunks.length; c += 2) {
+                if (Long.compareUnsigned(chunks[c+1], minOff) > 0
+                        && (re < 0 || Long.compareUnsigned(chunks[c], re) < 0)) {
+                    re = chunks[c];
+                }
+            }
+        }
+        return re;
+    }
+
+    /**
+     * Bins overlapping [beg, end), UCSC binning scheme.
+     */
+    private static List<Integer> reg2bins(int beg, int end){
+        List<Integer> re = new ArrayList<>();
+        end--;
+        re.add(0);
+        for (int k = 1 + (beg >> 26); k <= 1 + (end >> 26); k++) re.add(k);
+        for (int k = 9 + (beg >> 23); k <= 9 + (end >> 23); k++) re.add(k);
+        for (int k = 73 + (beg >> 20); k <= 73 + (end >> 20); k++) re.add(k);
+        for (int k = 585 + (beg >> 17); k <= 585 + (end >> 17); k++) re.add(k);
+        for (int k = 4681 + (beg >> 14); k <= 4681 + (end >> 14); k++) re.add(k);
+        return re;
+    }
+
+    private static int readInt(DataInputStream in) throws IOException{
+        return Integer.reverseBytes(in.readInt()); //little endian.
+    }
+
+    private static long readLong(DataInputStream in) throws IOException{
+        return (readInt(in) & 0xFFFFFFFFL) | (long) readInt(in) << 32;
+    }
+
+    /**
+     * Parse a region string, chr, chr:start or chr:start-end.
+     * @param s
+     * @return
+     * @throws IllegalArgumentException for invalid positions.
+     */
+    static Region parseRegion(String s){
+        int c = s.lastIndexOf(':');
+        if (c < 0) {
+            return new Region(s, 1, Integer.MAX_VALUE);
+        }
+        String contig = s.substring(0, c);
+        String[] ss = s.substring(c + 1).replace(",", "").split("-");
+        try {
+            int beg = Integer.parseInt(ss[0]);
+            int end = ss.length > 1 ? Integer.parseInt(ss[1]) : Integer.MAX_VALUE;
+            return new Region(contig, beg, end);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("can not parse region: " + s);
+        }
+    }
+
+    /**
+     * Read regions from a bed file, 0-based start and exclusive end.
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    static List<Region> readBed(String file) throws IOException{
+        List<Region> re = new ArrayList<>();
+        Files.lines(Paths.get(file), StandardCharsets.ISO_8859_1)
+            .map(String::trim)
+            .filter(s -> !s.isEmpty() && !s.startsWith("#") && !s.startsWith("track") && !s.startsWith("browser"))
+            .forEach(s -> {
+                String[] ss = s.split("\\s+");
+                re.add(new Region(ss[0], Integer.parseInt(ss[1]) + 1, Integer.parseInt(ss[2])));
+            });
+        return re;
+    }
+}
@@ -0,0 +1,151 @@
+package exome;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Variant identity packed in a long, instead of the chr-pos-ref-alt String.
+ *      contig id (12 bits) | pos (30 bits) | ref/alt allele id (22 bits).
+ * Contig and allele ids are assigned when loading the gene annotation, so
+ * a vcf site is looked up on the line bytes, and a site with contig or
+ * alleles never annotated has no key.
+ */
+final class VariantKeys {
+    static final int CONTIG_BITS = 12;
+    static final int POS_BITS = 30;
+    static final int ALLELE_BITS = 22;
+    static final long NO_KEY = -1L; //valid keys never have all bits set, pos < 2^30 - 1.
+
+    private final LongIntMap contigIds = new LongIntMap(64, -1);   //hash of contig -> id.
+    private final List<String> contigs = new ArrayList<>();
+    private final LongIntMap alleleIds = new LongIntMap(1024, -1); //hash of ref\talt -> id.
+    private final List<String> alleles = new ArrayList<>();        //ref-alt.
+
+    /**
+     * Key of an annotated site, new contig or alleles get new ids.
+     * @param contig
+     * @param pos
+     * @param ref
+     * @param alt
+     * @return
+     * @throws IllegalArgumentException if the site can not be packed.
+     */
+    long add(String contig, int pos, String ref, String alt){
+        long hc = hash(contig, 0, contig.length());
+        int c = contigIds.get(hc);
+        if (c < 0) {
+            c = contigs.size();
+            if (c >= 1 << CONTIG_BITS) {
+                throw new IllegalArgumentException("too many contigs in gene annotation, at most " + (1 << CONTIG_BITS));
+            }
+            contigIds.put(hc, c);
+            contigs.add(contig);
+        } else if (!contigs.get(c).equals(contig)) {
+            throw new IllegalArgumentException("hash collision of variant key contigs: " + contigs.get(c) + " and " + contig);
+        }
+        String ra = ref + "\t" + alt;
+        long ha = hash(ra, 0, ra.length());
+        int a = alleleIds.get(ha);
+        if (a < 0) {
+            a = alleles.size();
+            if (a >= 1 << ALLELE_BITS) {
+                throw new IllegalArgumentException("too many distinct ref/alt alleles in gene annotation, at most " + (1 << ALLELE_BITS));
+            }
+            alleleIds.put(ha, a);
+            alleles.add(ref + "-" + alt);
+        } else if (!alleles.get(a).equals(ref + "-" + alt)) {
+            throw new IllegalArgumentException("hash collision of variant key alleles: " + alleles.get(a) + " and " + ref + "-" + alt);
+        }
+        if (pos <= 0 || pos >= (1 << POS_BITS) - 1) {
+            throw new IllegalArgumentException("position out of range in gene annotation: " + contig + ":" + pos);
+        }
+        return (long) c << (POS_BITS + ALLELE_BITS) | (long) pos << ALLELE_BITS | a;
+    }
+
+    /**
+     * Key of a vcf line, from the CHROM, POS, REF and ALT columns.
+     * @param rec
+     * @return NO_KEY if contig or alleles are not in the annotation.
+     */
+    long key(VcfRecord rec){
+        int c = contigIds.get(hash(rec.buf, rec.start[0], rec.end[0], -1, 0, 0));
+        if (c < 0 || !same(contigs.get(c), 0, rec.buf, rec.start[0], rec.end[0])) {
+            return NO_KEY;
+        }
+        int a = alleleIds.get(hash(rec.buf, rec.start[3], rec.end[3], '\t', rec.start[4], rec.end[4]));
+        if (a < 0) {
+            return NO_KEY;
+        }
+        String ra = alleles.get(a);
+        int refLen = rec.end[3] - rec.start[3];
+        if (ra.length() != refLen + 1 + rec.end[4] - rec.start[4]
+                || !same(ra, 0, rec.buf, rec.start[3], rec.end[3])
+                || !same(ra, refLen + 1, rec.buf, rec.start[4], rec.end[4])) {
+            return NO_KEY;
+        }
+        long pos = 0;
+        for (int i = rec.start[1]; i < rec.end[1]; i++) {
+            pos = pos * 10 + (rec.buf[i] - '0');
+            if (pos >= (1 << POS_BITS) - 1) {
+                return NO_KEY;
+            }
+        }
+        return (long) c << (POS_BITS + ALLELE_BITS) | pos << ALLELE_BITS | a;
+    }
+
+    /**
+     * chr-pos-ref-alt of a key.
+     * @param key
+     * @return
+     */
+    String format(long key){
+        int c = (int) (key >>> (POS_BITS + ALLELE_BITS));
+        int pos = (int) (key >>> ALLELE_BITS) & ((1 << POS_BITS) - 1);
+        int a = (int) key & ((1 << ALLELE_BITS) - 1);
+        return contigs.get(c) + "-" + pos + "-" + alleles.get(a);
+    }
+
+    /**
+     * Whether s[off, off + to - from) equals b[from, to).
+     */
+    private static boolean same(String s, int off, byte[] b, int from, int to){
+        if (s.length() < off + to - from) {
+            return false;
+        }
+        for (int i = 0; i < to - from; i++) {
+            if (s.charAt(off + i) != (b[from + i] & 0xFF)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //FNV-1a 64 bits.
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static long hash(String s, int from, int to){
+        long h = FNV_OFFSET;
+        for (int i = from; i < to; i++) {
+            h = (h ^ (s.charAt(i) & 0xFF)) * FNV_PRIME;
+        }
+        return h;
+    }
+
+    /**
+     * Hash of b[from1, to1), followed by separator sep and b[from2, to2) if sep >= 0.
+     */
+    private static long hash(byte[] b, int from1, int to1, int sep, int from2, int to2){
+        long h = FNV_OFFSET;
+        for (int i = from1; i < to1; i++) {
+            h = (h ^ (b[i] & 0xFF)) * FNV_PRIME;
+        }
+        if (sep >= 0) {
+            h = (h ^ sep) * FNV_PRIME;
+            for (int i = from2; i < to2; i++) {
+                h = (h ^ (b[i] & 0xFF)) * FNV_PRIME;
+            }
+        }
+        return h;
+    }
+}
@@ -0,0 +1,183 @@
+package exome;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Read vcf text as raw bytes.
+ * Header lines are returned one by one as String, data lines are returned
+ * as blocks of whole lines, without decoding or copying each line.
+ * position() is the input position after the returned lines, the virtual offset
+ * for BGZF or the byte offset, for resuming from a checkpoint by seek().
+ */
+class VcfLineReader implements Closeable {
+
+    /**
+     * A block of whole lines, buf[0, len).
+     */
+    static final class Block {
+        final byte[] buf;
+        final int len;
+
+        Block(byte[] buf, int len) {
+            this.buf = buf;
+            this.len = len;
+        }
+    }
+
+    private final InputStream in;
+    private byte[] carry = new byte[1 << 16]; //bytes read but not returned yet.
+    private int carryLen = 0;
+    private boolean eof = false;
+    private long read = 0; //bytes read from the plain input.
+
+    VcfLineReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Read one line, without the line terminator.
+     * @return null if end of input.
+     * @throws IOException
+     */
+    String readLine() throws IOException{
+        int scanned = 0;
+        while (true) {
+            for (int i = scanned; i < carryLen; i++) {
+                if (carry[i] == '\n') {
+                    int len = i > 0 && carry[i-1] == '\r' ? i - 1 : i;
+                    String s = new String(carry, 0, len, StandardCharsets.ISO_8859_1);
+                    carryLen -= i + 1;
+                    System.arraycopy(carry, i + 1, carry, 0, carryLen);
+                    return s;
+                }
+            }
+            scanned = carryLen;
+            if (eof) {
+                if (carryLen == 0) {
+                    return null;
+                }
+                String s = new String(carry, 0, carryLen, StandardCharsets.ISO_8859_1);
+                carryLen = 0;
+                return s;
+            }
+            if (carryLen == carry.length) {
+                carry = Arrays.copyOf(carry, carry.length * 2);
+            }
+            int r = in.read(carry, carryLen, carry.length - carryLen);
+            if (r < 0) {
+                eof = true;
+            }else{
+                carryLen += r;
+                read += r;
+            }
+        }
+    }
+
+    /**
+     * Read a block of whole lines, about 'size' bytes.
+     * The block is enlarged if one line is longer than 'size'.
+     * @param size
+     * @return null if end of input.
+     * @throws IOException
+     */
+    Block readBlock(int size) throws IOException{
+        byte[] b = new byte[Math.max(size, carryLen * 2)];
+        int n = carryLen;
+        System.arraycopy(carry, 0, b, 0, n);
+        carryLen = 0;
+
+        while (!eof) {
+            if (n == b.length) {
+                if (lastNewline(b, n) >= 0) {
+                    break;
+                }
+                b = Arrays.copyOf(b, b.length * 2); //a very long line.
+            }
+            int r = in.read(b, n, b.length - n);
+            if (r < 0) {
+                eof = true;
+            }else{
+                n += r;
+                read += r;
+            }
+        }
+
+        if (n == 0) {
+            return null;
+        }
+        if (eof) {
+            return new Block(b, n);
+        }
+
+        //keep the partial line for next block.
+        int last = lastNewline(b, n);
+        carryLen = n - last - 1;
+        if (carryLen > carry.length) {
+            carry = new byte[carryLen];
+        }
+        System.arraycopy(b, last + 1, carry, 0, carryLen);
+        return new Block(b, last + 1);
+    }
+
+    /**
+     * Input position after the lines returned so far.
+     * @return virtual offset for BGZF input, otherwise byte offset.
+     */
+    long position(){
+        if (in instanceof BgzfInputStream) {
+            return ((BgzfInputStream) in).virtualOffset(carryLen);
+        }
+        return read - carryLen;
+    }
+
+    /**
+     * Move to a position from position(), only forward for plain input.
+     * @param pos
+     * @throws IOException
+     */
+    void seek(long pos) throws IOException{
+        if (in instanceof BgzfInputStream) {
+            ((BgzfInputStream) in).seek(pos);
+            carryLen = 0;
+            eof = false;
+            return;
+        }
+        long n = pos - position();
+        if (n < 0) {
+            throw new IOException("ERROR: can not seek backward in plain vcf.");
+        }
+        if (n <= carryLen) {
+            carryLen -= (int) n;
+            System.arraycopy(carry, (int) n, carry, 0, carryLen);
+            return;
+        }
+        n -= carryLen;
+        carryLen = 0;
+        while (n > 0) {
+            long r = in.skip(n);
+            if (r <= 0) {
+                throw new IOException("ERROR: vcf is shorter than the checkpoint position.");
+            }
+            n -= r;
+            read += r;
+        }
+    }
+
+    private static int lastNewline(byte[] b, int n){
+        for (int i = n - 1; i >= 0; i--) {
+            if (b[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,137 @@
+package exome;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * One vcf data line tokenized in place.
+ * Columns are recorded as [start, end) offsets in the line buffer,
+ * Strings are only created for the fields which are output.
+ */
+final class VcfRecord {
+    byte[] buf;
+    int nCols = 0;
+    int[] start = new int[64];
+    int[] end = new int[64];
+    //site of the genotype cache (-cache), sample columns are read from the cache, null for vcf lines.
+    GenotypeCache cache = null;
+    int site = -1;
+
+    /**
+     * Tokenize line buf[from, to) by white spaces, same as line.trim().split("\\s+").
+     * Bytes are compared unsigned, non-ASCII bytes (eg. UTF-8 in INFO) are not separators.
+     * @param buf
+     * @param from
+     * @param to
+     */
+    void set(byte[] buf, int from, int to){
+        this.buf = buf;
+        cache = null;
+        nCols = 0;
+        int i = from;
+        while (true) {
+            while (i < to && (buf[i] & 0xFF) <= ' ') {
+                i++;
+            }
+            if (i >= to) {
+                break;
+            }
+            if (nCols == start.length) {
+                start = Arrays.copyOf(start, nCols * 2);
+                end = Arrays.copyOf(end, nCols * 2);
+            }
+            start[nCols] = i;
+            while (i < to && (buf[i] & 0xFF) > ' ') {
+                i++;
+            }
+            end[nCols++] = i;
+        }
+    }
+
+    /**
+     * Make a copy of the column offsets, sharing the same line buffer.
+     * @return
+     */
+    VcfRecord copy(){
+        VcfRecord r = new VcfRecord();
+        r.buf = buf;
+        r.nCols = nCols;
+        r.start = Arrays.copyOf(start, nCols);
+        r.end = Arrays.copyOf(end, nCols);
+        return r;
+    }
+
+    String field(int col){
+        return new String(buf, start[col], end[col] - start[col], StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Number of alt. alleles, comma separated in the ALT column.
+     * @return
+     */
+    int nAlts(){
+        int n = 1;
+        for (int i = start[4]; i < end[4]; i++) {
+            if (buf[i] == ',') {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Write this line with only the k-th alt. allele.
+     * In the GT sub-field, allele k is recoded to 1 and other alt. alleles to 0. All other
+     * sub-fields (eg. AD, PL) and INFO are copied as they are, not split by allele.
+     * @param k alt. allele, 1 based.
+     * @param colStart first sample column.
+     * @param gt index of GT in FORMAT (FormatFields.gt), -1 if absent, samples are copied as is.
+     * @param out
+     */
+    void splitAllele(int k, int colStart, int gt, ByteOutput out){
+        for (int c = 0; c < nCols; c++) {
+            if (c > 0) {
+                out.append('\t');
+            }
+            if (c == 4) { //k-th alt.
+                int b = start[4];
+                for (int n = 1; n < k; b++) {
+                    if (buf[b] == ',') {
+                        n++;
+                    }
+                }
+                int e = b;
+                while (e < end[4] && buf[e] != ',') {
+                    e++;
+                }
+                out.append(buf, b, e);
+            }else if (c < colStart) {
+                out.append(buf, start[c], end[c]);
+            }else{
+                int i = gt < 0 ? -1 : FormatFields.subFieldStart(this, c, gt);
+                if (i < 0) { //no GT.
+                    out.append(buf, start[c], end[c]);
+                    continue;
+                }
+                out.append(buf, start[c], i);
+                int v = -1;
+                for (; i < end[c] && buf[i] != ':'; i++) {
+                    byte b = buf[i];
+                    if (b >= '0' && b <= '9') {
+                        v = (v < 0 ? 0 : v * 10) + (b - '0');
+                    }else{
+                        if (v >= 0) {
+                            out.append(v == k ? '1' : '0');
+                            v = -1;
+                        }
+                        out.append((char) (b & 0xFF));
+                    }
+                }
+                if (v >= 0) {
+                    out.append(v == k ? '1' : '0');
+                }
+                out.append(buf, i, end[c]);
+            }
+        }
+    }
+}
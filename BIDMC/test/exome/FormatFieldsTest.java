@@ -0,0 +1,40 @@
+package exome;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+/**
+ * Sub-field indexes by the FORMAT column, cached for consecutive lines.
+ */
+public class FormatFieldsTest {
+
+    private static VcfRecord record(String line){
+        byte[] b = line.getBytes(StandardCharsets.ISO_8859_1);
+        VcfRecord r = new VcfRecord();
+        r.set(b, 0, b.length);
+        return r;
+    }
+
+    @Test
+    public void indexesByName(){
+        FormatFields fmt = new FormatFields(-1, -1);
+        fmt.parse(record("1\t100\t.\tA\tG\t.\t.\t.\tDP:GQ:GT\t10:20:0/1"));
+        assertEquals(2, fmt.gt);
+        assertEquals(0, fmt.dp);
+        assertEquals(1, fmt.gq);
+    }
+
+    @Test
+    public void sameFormatAfterSitesOnlyLine(){
+        FormatFields fmt = new FormatFields(-1, -1);
+        fmt.parse(record("1\t100\t.\tA\tG\t.\t.\t.\tDP:GT\t10:0/1"));
+        fmt.parse(record("1\t101\t.\tA\tG\t.\t.\t."));
+        assertEquals(0, fmt.gt);
+        assertEquals(-1, fmt.dp);
+        fmt.parse(record("1\t102\t.\tA\tG\t.\t.\t.\tDP:GT\t10:0/1"));
+        assertEquals(1, fmt.gt);
+        assertEquals(0, fmt.dp);
+    }
+}
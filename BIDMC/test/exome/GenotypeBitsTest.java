@@ -0,0 +1,72 @@
+package exome;
+
+import static exome.GenotypeBits.ALT;
+import static exome.GenotypeBits.ALT_HOM;
+import static exome.GenotypeBits.NON_MISSING;
+import static exome.GenotypeBits.REF;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+/**
+ * Genotype state of the GT sub-field, with multi-digit alleles, haploid,
+ * phased and partly missing calls.
+ */
+public class GenotypeBitsTest {
+
+    private static int state(String gt){
+        byte[] b = gt.getBytes(StandardCharsets.ISO_8859_1);
+        return GenotypeBits.decodeGT(b, 0, b.length);
+    }
+
+    @Test
+    public void diploid(){
+        assertEquals(NON_MISSING | REF, state("0/0"));
+        assertEquals(NON_MISSING | ALT, state("0/1"));
+        assertEquals(NON_MISSING | ALT, state("1/0"));
+        assertEquals(NON_MISSING | ALT | ALT_HOM, state("1/1"));
+        assertEquals(NON_MISSING | ALT | ALT_HOM, state("1/2"));
+        assertEquals(0, state("./."));
+        assertEquals(0, state("."));
+    }
+
+    @Test
+    public void multiDigitAlleles(){
+        assertEquals(NON_MISSING | ALT, state("0/12"));
+        assertEquals(NON_MISSING | ALT | ALT_HOM, state("10/10"));
+        assertEquals(NON_MISSING | ALT, state("10/0"));
+        assertEquals(NON_MISSING | REF, state("00/0"));
+    }
+
+    @Test
+    public void haploid(){
+        assertEquals(NON_MISSING | REF, state("0"));
+        assertEquals(NON_MISSING | ALT | ALT_HOM, state("1"));
+        assertEquals(NON_MISSING | ALT | ALT_HOM, state("11"));
+    }
+
+    @Test
+    public void partlyMissing(){
+        //ref known, the other allele unknown: neither ref nor alt.
+        assertEquals(NON_MISSING, state("0/."));
+        //first allele missing, the call is missing.
+        assertEquals(0, state("./1"));
+        assertEquals(0, state("./0"));
+    }
+
+    @Test
+    public void phased(){
+        assertEquals(NON_MISSING | ALT, state("0|1"));
+        assertEquals(NON_MISSING | ALT, state("1|0"));
+        assertEquals(NON_MISSING | ALT | ALT_HOM, state("1|1"));
+        assertEquals(NON_MISSING, state("0|."));
+    }
+
+    @Test
+    public void endsAtSubFieldSeparator(){
+        byte[] b = "0/1:35:0/0".getBytes(StandardCharsets.ISO_8859_1);
+        assertEquals(NON_MISSING | ALT, GenotypeBits.decodeGT(b, 0, b.length));
+        assertEquals(NON_MISSING | REF, GenotypeBits.decodeGT(b, 7, b.length));
+    }
+}
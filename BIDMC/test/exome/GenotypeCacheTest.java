@@ -0,0 +1,95 @@
+package exome;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+/**
+ * Genotypes read from the cache are the same as decoded from the vcf line,
+ * GT strings other than ./., 0/0, 0/1 and 1/1, and DP/GQ of any width are kept.
+ */
+public class GenotypeCacheTest {
+    private static final String[] LINES = {
+        "chr1\t100\t.\tA\tG\t.\tPASS\t.\tGT:DP:GQ\t0/0:10:99\t0/1:.:20\t1/1:300:5\t./.:1:1\t0/.:7:.\t1|0:70000:40\t0",
+        "chr1\t200\t.\tC\tT\t.\tPASS\t.\tDP:GT\t3:0/0\t4:0/1\t5\t.:1\t6:./1\t7:0/0",
+        "chr2\t300\t.\tG\tA\t.\tPASS\t.\tGT\t0/0\t0/1\t1/1\t./.\t0/0\t0/1\t1/1",
+    };
+
+    private static VcfRecord record(String line){
+        byte[] b = line.getBytes(StandardCharsets.ISO_8859_1);
+        VcfRecord r = new VcfRecord();
+        r.set(b, 0, b.length);
+        return r;
+    }
+
+    private static GenotypeCache convert(File f) throws IOException{
+        StringBuilder vcf = new StringBuilder("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts0\ts1\ts2\ts3\ts4\ts5\ts6\n");
+        for (String s : LINES) {
+            vcf.append(s).append('\n');
+        }
+        try (VcfLineReader in = new VcfLineReader(new ByteArrayInputStream(vcf.toString().getBytes(StandardCharsets.ISO_8859_1)))) {
+            assertEquals(LINES.length, GenotypeCache.convert(in, f.getPath(), false));
+        }
+        return new GenotypeCache(f.getPath());
+    }
+
+    @Test
+    public void sameAsVcf() throws IOException{
+        File f = File.createTempFile("exome-test", ".cache");
+        try {
+            GenotypeCache cache = convert(f);
+            assertEquals(7, cache.nSamples);
+            for (int i = 0; i < LINES.length; i++) {
+                for (int[] t : new int[][] {{-1, -1}, {10, 0}, {0, 5}}) {
+                    VcfRecord r = record(LINES[i]);
+                    FormatFields fmt = new FormatFields(t[0], t[1]);
+                    fmt.parse(r);
+                    GenotypeBits expected = new GenotypeBits(7);
+                    expected.decode(r, 9, fmt);
+                    GenotypeBits g = new GenotypeBits(7);
+                    cache.decode(i, g, t[0], t[1]);
+                    assertArrayEquals(expected.nonMissing, g.nonMissing);
+                    assertArrayEquals(expected.ref, g.ref);
+                    assertArrayEquals(expected.alt, g.alt);
+                    assertArrayEquals(expected.altHom, g.altHom);
+                }
+            }
+        } finally {
+            f.delete();
+        }
+    }
+
+    private static String genotype(GenotypeCache cache, int site, int sample){
+        ByteOutput out = new ByteOutput(16);
+        cache.appendGenotype(site, sample, out);
+        return new String(out.buffer(), 0, out.length(), StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    public void genotypeStrings() throws IOException{
+        File f = File.createTempFile("exome-test", ".cache");
+        try {
+            GenotypeCache cache = convert(f);
+            String[] first = {"0/0:10", "0/1:.", "1/1:300", "./.:1", "0/.:7", "1|0:70000", "0"};
+            for (int i = 0; i < first.length; i++) {
+                assertEquals(first[i], genotype(cache, 0, i));
+            }
+            String[] second = {"0/0:3", "0/1:4", "5:5", "1:.", "./1:6", "0/0:7", "."};
+            for (int i = 0; i < second.length; i++) {
+                assertEquals(second[i], genotype(cache, 1, i));
+            }
+            assertEquals("1/1", genotype(cache, 2, 6));
+            VcfRecord r = new VcfRecord();
+            cache.site(2, r);
+            assertEquals("chr2", r.field(0));
+            assertEquals("A", r.field(4));
+        } finally {
+            f.delete();
+        }
+    }
+}
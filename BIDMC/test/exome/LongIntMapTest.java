@@ -0,0 +1,82 @@
+package exome;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Same results as a HashMap, through probe chain collisions, growth and
+ * removal by shifting back.
+ */
+public class LongIntMapTest {
+
+    @Test
+    public void sameAsHashMap(){
+        Random rnd = new Random(11);
+        LongIntMap m = new LongIntMap(4, -1);
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 200000; i++) {
+            //few distinct keys, 0 included, so keys are put, found and removed again.
+            long key = rnd.nextInt(5000) - 100;
+            int op = rnd.nextInt(3);
+            if (op == 0) {
+                int v = rnd.nextInt(1000);
+                Integer old = expected.put(key, v);
+                assertEquals(old == null ? -1 : old, m.put(key, v));
+            } else if (op == 1) {
+                Integer old = expected.remove(key);
+                assertEquals(old == null ? -1 : old, m.remove(key));
+            } else {
+                Integer v = expected.get(key);
+                assertEquals(v == null ? -1 : v, m.get(key));
+            }
+            assertEquals(expected.size(), m.size());
+        }
+        for (long key = -100; key < 4900; key++) {
+            Integer v = expected.get(key);
+            assertEquals(v == null ? -1 : v, m.get(key));
+            assertEquals(v != null, m.containsKey(key));
+        }
+    }
+
+    @Test
+    public void removeInCollidingChain(){
+        //keys with the same home slot in a small table.
+        LongIntMap m = new LongIntMap(1024, -1);
+        long[] same = new long[8];
+        int n = 0;
+        int home = -1;
+        for (long key = 1; n < same.length; key++) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            int slot = (int) (h ^ (h >>> 32)) & 2047;
+            if (home < 0) {
+                home = slot;
+            }
+            if (slot == home) {
+                same[n++] = key;
+            }
+        }
+        for (int i = 0; i < same.length; i++) {
+            m.put(same[i], i);
+        }
+        for (int i = 0; i < same.length; i += 2) {
+            assertEquals(i, m.remove(same[i]));
+        }
+        for (int i = 0; i < same.length; i++) {
+            assertEquals(i % 2 == 0 ? -1 : i, m.get(same[i]));
+        }
+        assertEquals(same.length / 2, m.size());
+    }
+
+    @Test
+    public void addToStartsFromZero(){
+        LongIntMap m = new LongIntMap(4, -1);
+        assertEquals(-1, m.addTo(7, -1));
+        assertEquals(1, m.addTo(7, 2));
+        assertEquals(3, m.addTo(0, 3));
+        assertEquals(2, m.size());
+    }
+}
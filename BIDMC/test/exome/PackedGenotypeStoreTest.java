@@ -0,0 +1,60 @@
+package exome;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import org.junit.Test;
+
+/**
+ * Packed genotypes over the memory budget go to a temp file, which is not left on disk.
+ */
+public class PackedGenotypeStoreTest {
+
+    private static int spillFiles(){
+        File[] fs = new File(System.getProperty("java.io.tmpdir")).listFiles((d, n) -> n.startsWith("exome-com") && n.endsWith(".bin"));
+        return fs == null ? 0 : fs.length;
+    }
+
+    private static long[] packed(int nSamples, long seed){
+        long[] re = new long[Math.max(1, (nSamples * 2 + 63) >>> 6)];
+        for (int k = 0; k < re.length; k++) {
+            re[k] = seed * 0x9E3779B97F4A7C15L + k;
+        }
+        return re;
+    }
+
+    @Test
+    public void spillFileIsNotLeft() throws IOException{
+        int before = spillFiles();
+        PackedGenotypeStore store = new PackedGenotypeStore(100, 0);
+        for (int v = 0; v < 3; v++) {
+            store.add(v, v + 1, false, packed(100, v), new int[0], new String[0], 0);
+        }
+        assertTrue(store.spilled());
+        assertEquals(3, store.size());
+        assertEquals(2, store.pos(1));
+        store.close();
+        assertEquals(before, spillFiles());
+    }
+
+    @Test
+    public void spilledGenotypesAreKept() throws IOException{
+        PackedGenotypeStore store = new PackedGenotypeStore(40, 0);
+        GenotypeBits g = new GenotypeBits(40);
+        g.nonMissing[0] = 0xFFL;
+        g.alt[0] = 0x0FL;
+        g.altHom[0] = 0x03L;
+        long[] p = PackedGenotypeStore.pack(g);
+        store.add(7, 100, true, p, new int[] {1}, new String[] {"0/1"}, 0);
+        GenotypeBits back = new GenotypeBits(40);
+        store.genotypes(0, back);
+        assertArrayEquals(g.nonMissing, back.nonMissing);
+        assertArrayEquals(g.alt, back.alt);
+        assertArrayEquals(g.altHom, back.altHom);
+        assertEquals("0/1", store.familyGenotype(0, 1));
+        store.close();
+    }
+}
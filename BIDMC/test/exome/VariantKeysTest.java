@@ -0,0 +1,42 @@
+package exome;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+/**
+ * Keys added from the gene annotation are found again from vcf lines.
+ */
+public class VariantKeysTest {
+
+    private static VcfRecord record(String line){
+        byte[] b = line.getBytes(StandardCharsets.ISO_8859_1);
+        VcfRecord r = new VcfRecord();
+        r.set(b, 0, b.length);
+        return r;
+    }
+
+    @Test
+    public void roundTrip(){
+        VariantKeys keys = new VariantKeys();
+        long a = keys.add("chr1", 100, "A", "G");
+        long b = keys.add("chrX", 155270560, "AT", "A");
+        long c = keys.add("chr1", 200, "A", "G");
+        assertEquals(a, keys.key(record("chr1\t100\t.\tA\tG\t.\t.\t.\tGT\t0/1")));
+        assertEquals(b, keys.key(record("chrX\t155270560\trs1\tAT\tA\t50\tPASS\t.")));
+        assertEquals(c, keys.key(record("chr1\t200\t.\tA\tG")));
+        assertEquals("chr1-100-A-G", keys.format(a));
+        assertEquals("chrX-155270560-AT-A", keys.format(b));
+        assertEquals(a, keys.add("chr1", 100, "A", "G"));
+    }
+
+    @Test
+    public void notAnnotated(){
+        VariantKeys keys = new VariantKeys();
+        keys.add("chr1", 100, "A", "G");
+        assertEquals(VariantKeys.NO_KEY, keys.key(record("chr2\t100\t.\tA\tG")));
+        assertEquals(VariantKeys.NO_KEY, keys.key(record("chr1\t100\t.\tA\tC")));
+        assertEquals(VariantKeys.NO_KEY, keys.key(record("chr1\t100\t.\tAG\tG")));
+    }
+}
@@ -0,0 +1,93 @@
+package exome;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+/**
+ * Tokenizing vcf lines in place, non-ASCII bytes are kept in their column,
+ * and splitting multi-allelic lines.
+ */
+public class VcfRecordTest {
+
+    private static VcfRecord record(String line){
+        byte[] b = line.getBytes(StandardCharsets.UTF_8);
+        VcfRecord r = new VcfRecord();
+        r.set(b, 0, b.length);
+        return r;
+    }
+
+    @Test
+    public void nonAsciiInfoIsOneColumn(){
+        VcfRecord r = record("chr1\t100\t.\tA\tG\t.\tPASS\tNOTE=café_x;GENE=Ünï\tGT:DP\t0/1:10\t1/1:12\n");
+        assertEquals(11, r.nCols);
+        assertEquals("GT:DP", r.field(8));
+        assertEquals("1/1:12", r.field(10));
+        //fields are bytes as ISO-8859-1 chars, the same as the header and ped ids.
+        byte[] info = "NOTE=café_x;GENE=Ünï".getBytes(StandardCharsets.UTF_8);
+        assertEquals(new String(info, StandardCharsets.ISO_8859_1), r.field(7));
+    }
+
+    @Test
+    public void genotypesAfterNonAsciiInfo(){
+        VcfRecord r = record("chr1\t100\t.\tA\tG\t.\tPASS\tNOTE=café_x\tGT:DP\t0/1:10\t1/1:12\t0/0:9");
+        FormatFields fmt = new FormatFields(-1, -1);
+        fmt.parse(r);
+        GenotypeBits g = new GenotypeBits(3);
+        g.decode(r, 9, fmt);
+        assertEquals(0b011, g.alt[0]);
+        assertEquals(0b010, g.altHom[0]);
+        assertEquals(0b100, g.ref[0]);
+    }
+
+    @Test
+    public void whiteSpaceSeparated(){
+        VcfRecord r = record("  chr1 100\t.\t\tA \r\n");
+        assertEquals(4, r.nCols);
+        assertEquals("A", r.field(3));
+    }
+
+    private static String split(VcfRecord r, int k){
+        FormatFields fmt = new FormatFields(-1, -1);
+        fmt.parse(r);
+        ByteOutput out = new ByteOutput(64);
+        r.splitAllele(k, 9, fmt.gt, out);
+        return new String(out.buffer(), 0, out.length(), StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    public void splitRecodesOnlyGT(){
+        VcfRecord r = record("chr1\t100\t.\tA\tG,T\t.\tPASS\t.\tDP:GT:AD\t12:1/2:3,4,5\t20:0/2:9,0,2");
+        assertEquals("chr1\t100\t.\tA\tG\t.\tPASS\t.\tDP:GT:AD\t12:1/0:3,4,5\t20:0/0:9,0,2", split(r, 1));
+        assertEquals("chr1\t100\t.\tA\tT\t.\tPASS\t.\tDP:GT:AD\t12:0/1:3,4,5\t20:0/1:9,0,2", split(r, 2));
+    }
+
+    @Test
+    public void splitWithoutGT(){
+        VcfRecord r = record("chr1\t100\t.\tA\tG,T\t.\tPASS\t.\tDP\t12\t21");
+        assertEquals("chr1\t100\t.\tA\tT\t.\tPASS\t.\tDP\t12\t21", split(r, 2));
+    }
+
+    @Test
+    public void splitMultiDigitPhasedAndHaploid(){
+        String alts = "C,G,T,AC,AG,AT,CA,CG,CT,GA,GC,GT";
+        VcfRecord r = record("chr1\t100\t.\tA\t" + alts + "\t.\tPASS\t.\tAD:GT\t1:0/12\t2:12|12\t3:./12\t4:12\t5:1|.");
+        assertEquals("chr1\t100\t.\tA\tGT\t.\tPASS\t.\tAD:GT\t1:0/1\t2:1|1\t3:./1\t4:1\t5:0|.", split(r, 12));
+        assertEquals("chr1\t100\t.\tA\tC\t.\tPASS\t.\tAD:GT\t1:0/0\t2:0|0\t3:./0\t4:0\t5:1|.", split(r, 1));
+    }
+
+    @Test
+    public void splitGTInTheMiddle(){
+        VcfRecord r = record("chr1\t100\t.\tA\tG,T\t.\tPASS\t.\tGQ:GT:DP\t30:2/2:7\t.:.:.");
+        assertEquals("chr1\t100\t.\tA\tT\t.\tPASS\t.\tGQ:GT:DP\t30:1/1:7\t.:.:.", split(r, 2));
+        GenotypeBits g = new GenotypeBits(2);
+        VcfRecord one = record(split(r, 1));
+        FormatFields fmt = new FormatFields(-1, -1);
+        fmt.parse(one);
+        g.decode(one, 9, fmt);
+        assertEquals(0b01, g.nonMissing[0]);
+        assertEquals(0b01, g.ref[0]);
+        assertEquals(0, g.alt[0]);
+    }
+}